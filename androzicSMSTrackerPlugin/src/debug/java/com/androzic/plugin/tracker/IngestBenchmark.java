@@ -0,0 +1,182 @@
+package com.androzic.plugin.tracker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Ingest load test on a fleet of synthetic trackers. Runs per-message path (parse and
+ * save every message in its own transaction) and batched path (parse on sender lanes,
+ * save batches by single writer) with one lane and with requested number of lanes.
+ * Batching gain and partitioning gain are reported separately. All runs write to a
+ * separate database which is deleted afterwards.
+ */
+final class IngestBenchmark
+{
+	private static final String DATABASE = "ingest_benchmark.db";
+	private static final long MINUTE = 60 * 1000;
+
+	private final Context context;
+	private final List<String> senders = new ArrayList<String>();
+	// sender and text of every message, messages of different senders are interleaved
+	private final List<String[]> messages = new ArrayList<String[]>();
+	private final Map<String, Long> lastTimes = new HashMap<String, Long>();
+	// Reference time of messages, they are parsed without counting live parser statistics
+	private final long now = System.currentTimeMillis();
+
+	IngestBenchmark(Context context, int trackers, int messagesPerTracker)
+	{
+		this.context = context;
+		for (int t = 0; t < trackers; t++)
+			senders.add("+7900" + String.format(Locale.US, "%07d", t));
+
+		long base = TrackerTimeDecoder.decodeDayMonthYearTime("01/03/13 00:00", 0, 14, TimeZone.getDefault());
+		for (int i = 0; i < messagesPerTracker; i++)
+		{
+			for (int t = 0; t < trackers; t++)
+			{
+				long time = base + (i * trackers + t) * MINUTE;
+				String text = String.format(Locale.US, "lat: %09.6f long: %010.6f speed: %05.1f %td/%<tm/%<ty %<tH:%<tM bat:F signal:F imei:%015d",
+						55 + t * 0.001, 37 + i * 0.0001, i % 100 * 1.0, time, 358948010000000L + t);
+				messages.add(new String[] { senders.get(t), text });
+			}
+		}
+		// Remember expected latest time of every tracker, decoded the same way as on ingest
+		for (String[] message : messages)
+		{
+			Tracker tracker = new Tracker();
+			if (TrackerMessageParsers.parseQuietly(message[1], now, tracker, false, null) != null)
+				lastTimes.put(message[0], tracker.time);
+		}
+	}
+
+	/**
+	 * Runs all paths and returns report lines
+	 */
+	List<String> run(int parallelism) throws InterruptedException
+	{
+		List<String> report = new ArrayList<String>();
+		report.add(String.format(Locale.US, "%d trackers, %d messages, %d lanes", senders.size(), messages.size(), parallelism));
+
+		long serial = runSerial();
+		report.add(line("per-message", serial, verify()));
+		long batched = runPartitioned(1);
+		report.add(line("batched", batched, verify()));
+		long partitioned = runPartitioned(parallelism);
+		report.add(line("partitioned", partitioned, verify()));
+		report.add(String.format(Locale.US, "batching x%.2f, partitioning x%.2f", (double) serial / batched, (double) batched / partitioned));
+
+		context.deleteDatabase(DATABASE);
+		return report;
+	}
+
+	private String line(String name, long nanos, boolean consistent)
+	{
+		double seconds = nanos / 1e9;
+		return String.format(Locale.US, "%-12s %8.1f ms %9.1f msg/s  %s", name, seconds * 1000, messages.size() / seconds, consistent ? "consistent" : "INCONSISTENT");
+	}
+
+	private long runSerial()
+	{
+		context.deleteDatabase(DATABASE);
+		TrackerDataAccess dataAccess = new TrackerDataAccess(context, DATABASE);
+		dataAccess.getWritableDatabase();
+
+		long start = System.nanoTime();
+		for (String[] message : messages)
+		{
+			Tracker tracker = new Tracker();
+			if (TrackerMessageParsers.parseQuietly(message[1], now, tracker, false, null) == null)
+				continue;
+			tracker.sender = message[0];
+			dataAccess.updateTracker(tracker);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		dataAccess.close();
+		return elapsed;
+	}
+
+	private long runPartitioned(int parallelism) throws InterruptedException
+	{
+		context.deleteDatabase(DATABASE);
+		TrackerDataAccess dataAccess = new TrackerDataAccess(context, DATABASE);
+		dataAccess.getWritableDatabase();
+
+		final List<Tracker> queue = new ArrayList<Tracker>();
+		final int[] processed = new int[1];
+		PartitionedExecutor lanes = new PartitionedExecutor("IngestBenchmark", parallelism);
+
+		long start = System.nanoTime();
+		for (final String[] message : messages)
+		{
+			lanes.execute(message[0], new Runnable() {
+				@Override
+				public void run()
+				{
+					Tracker tracker = new Tracker();
+					boolean parsed = TrackerMessageParsers.parseQuietly(message[1], now, tracker, false, null) != null;
+					tracker.sender = message[0];
+					synchronized (queue)
+					{
+						if (parsed)
+							queue.add(tracker);
+						processed[0]++;
+						queue.notify();
+					}
+				}
+			});
+		}
+		// This thread is the single writer
+		while (true)
+		{
+			List<Tracker> batch;
+			boolean last;
+			synchronized (queue)
+			{
+				while (queue.isEmpty() && processed[0] < messages.size())
+					queue.wait();
+				batch = new ArrayList<Tracker>(queue);
+				queue.clear();
+				last = processed[0] == messages.size();
+			}
+			if (! batch.isEmpty())
+				dataAccess.updateTrackers(batch);
+			if (last)
+				break;
+		}
+		long elapsed = System.nanoTime() - start;
+
+		lanes.shutdown(1, TimeUnit.SECONDS);
+		dataAccess.close();
+		return elapsed;
+	}
+
+	private boolean verify()
+	{
+		TrackerDataAccess dataAccess = new TrackerDataAccess(context, DATABASE);
+		try
+		{
+			for (String sender : senders)
+			{
+				Tracker tracker = dataAccess.getTracker(sender);
+				Long expected = lastTimes.get(sender);
+				if (tracker == null || expected == null || tracker.time != expected)
+					return false;
+			}
+			return true;
+		}
+		finally
+		{
+			dataAccess.close();
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.androzic.plugin.tracker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import android.os.Debug;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Measures cost of message parsers on a corpus of sample messages. Every parser and
+ * full dispatch chain are run on each corpus category separately. Reported are
+ * throughput, allocations per message (as counted by runtime) and worst-case latency.
+ */
+class ParserBenchmark
+{
+	static final String DISPATCH = "Dispatch";
+
+	static class Sample
+	{
+		final String category;
+		final String text;
+
+		Sample(String category, String text)
+		{
+			this.category = category;
+			this.text = text;
+		}
+	}
+
+	static class Result
+	{
+		String target;
+		String category;
+		long operations;
+		long recognized;
+		long nanos;
+		long maxNanos;
+		long allocations;
+		long allocatedBytes;
+		int gcs;
+	}
+
+	/**
+	 * Unit of work measured by benchmark
+	 */
+	interface Target
+	{
+		String getName();
+
+		/**
+		 * @return true if message was recognized
+		 */
+		boolean run(String text, Tracker tracker);
+	}
+
+	private final List<Sample> samples;
+	private final List<Target> targets = new ArrayList<Target>();
+	// Reference time of samples, parsers are run without counting live parser statistics
+	private final long now = System.currentTimeMillis();
+
+	ParserBenchmark(List<Sample> samples)
+	{
+		this.samples = samples;
+		for (final TrackerMessageParser parser : TrackerMessageParsers.getParsers())
+		{
+			targets.add(new Target() {
+				@Override
+				public String getName()
+				{
+					return parser.getName();
+				}
+
+				@Override
+				public boolean run(String text, Tracker tracker)
+				{
+					return text.length() <= parser.getMaxLength() && parser.parse(text, now, tracker);
+				}
+			});
+		}
+		targets.add(new Target() {
+			@Override
+			public String getName()
+			{
+				return DISPATCH;
+			}
+
+			@Override
+			public boolean run(String text, Tracker tracker)
+			{
+				return TrackerMessageParsers.parseQuietly(text, now, tracker, true, null) != null;
+			}
+		});
+	}
+
+	/**
+	 * Reads corpus: one message per line prefixed by category and tab, "\n" stands for line break.
+	 * Empty lines and lines starting with '#' are ignored.
+	 */
+	static List<Sample> loadCorpus(InputStream stream) throws IOException
+	{
+		List<Sample> samples = new ArrayList<Sample>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.length() == 0 || line.charAt(0) == '#')
+					continue;
+				int tab = line.indexOf('\t');
+				if (tab < 0)
+					continue;
+				samples.add(new Sample(line.substring(0, tab), unescape(line.substring(tab + 1))));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return samples;
+	}
+
+	private static String unescape(String text)
+	{
+		StringBuilder builder = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length())
+			{
+				char next = text.charAt(++i);
+				builder.append(next == 'n' ? '\n' : next);
+			}
+			else
+			{
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Adds custom target to be measured along with parsers
+	 */
+	void addTarget(Target target)
+	{
+		targets.add(target);
+	}
+
+	List<Result> run(int warmupRounds, int rounds)
+	{
+		Set<String> categories = new LinkedHashSet<String>();
+		for (Sample sample : samples)
+			categories.add(sample.category);
+
+		List<Result> results = new ArrayList<Result>();
+		for (Target target : targets)
+		{
+			for (String category : categories)
+			{
+				List<String> texts = new ArrayList<String>();
+				for (Sample sample : samples)
+				{
+					if (sample.category.equals(category))
+						texts.add(sample.text);
+				}
+				measure(target, texts, warmupRounds, null);
+				Result result = new Result();
+				result.target = target.getName();
+				result.category = category;
+				measure(target, texts, rounds, result);
+				results.add(result);
+			}
+		}
+		return results;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static void measure(Target target, List<String> texts, int rounds, Result result)
+	{
+		Tracker tracker = new Tracker();
+		int size = texts.size();
+		String[] array = texts.toArray(new String[size]);
+
+		long maxNanos = 0;
+		long recognized = 0;
+		if (result != null)
+		{
+			Debug.resetThreadAllocCount();
+			Debug.resetThreadAllocSize();
+			Debug.resetGlobalGcInvocationCount();
+			Debug.startAllocCounting();
+		}
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++)
+		{
+			for (int i = 0; i < size; i++)
+			{
+				long t = System.nanoTime();
+				if (target.run(array[i], tracker))
+					recognized++;
+				t = System.nanoTime() - t;
+				if (t > maxNanos)
+					maxNanos = t;
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		if (result == null)
+			return;
+		Debug.stopAllocCounting();
+
+		result.operations = (long) rounds * size;
+		result.recognized = recognized;
+		result.nanos = nanos;
+		result.maxNanos = maxNanos;
+		result.allocations = Debug.getThreadAllocCount();
+		result.allocatedBytes = Debug.getThreadAllocSize();
+		result.gcs = Debug.getGlobalGcInvocationCount();
+	}
+
+	List<String> report(List<Result> results)
+	{
+		List<String> lines = new ArrayList<String>();
+		lines.add(String.format(Locale.US, "%-14s %-9s %10s %8s %10s %10s %9s %4s", "target", "category", "msg/s", "hit%", "objs/msg", "bytes/msg", "max,us", "gc"));
+		for (Result r : results)
+		{
+			if (r.operations == 0)
+				continue;
+			double seconds = r.nanos / 1e9;
+			lines.add(String.format(Locale.US, "%-14s %-9s %10.0f %8.1f %10.2f %10.1f %9.1f %4d", r.target, r.category,
+					r.operations / seconds, 100.0 * r.recognized / r.operations,
+					(double) r.allocations / r.operations, (double) r.allocatedBytes / r.operations,
+					r.maxNanos / 1e3, r.gcs));
+		}
+		return lines;
+	}
+}
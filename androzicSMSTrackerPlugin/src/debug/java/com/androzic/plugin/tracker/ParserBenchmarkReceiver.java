@@ -0,0 +1,119 @@
+package com.androzic.plugin.tracker;
+
+import java.io.IOException;
+import java.util.List;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Runs parser benchmark in background thread, results are written to log:
+ * <pre>
+ * adb shell am broadcast -a com.androzic.plugin.tracker.action.BENCHMARK --ei rounds 200 --ei warmup 20
+ * adb logcat -s ParserBenchmark
+ * </pre>
+ * Add <code>--ez journal true</code> to include messages retained in message journal.
+ * <p>
+ * Ingest load test compares serial and partitioned ingest paths:
+ * <pre>
+ * adb shell am broadcast -a com.androzic.plugin.tracker.action.BENCHMARK --es mode ingest --ei trackers 50 --ei messages 20 --ei lanes 4
+ * </pre>
+ * Write path micro-benchmark compares ContentValues with precompiled statements:
+ * <pre>
+ * adb shell am broadcast -a com.androzic.plugin.tracker.action.BENCHMARK --es mode writes --ei rows 5000
+ * </pre>
+ * Query plan check verifies that database queries use indexes:
+ * <pre>
+ * adb shell am broadcast -a com.androzic.plugin.tracker.action.BENCHMARK --es mode plans
+ * </pre>
+ */
+public class ParserBenchmarkReceiver extends BroadcastReceiver
+{
+	private static final String TAG = "ParserBenchmark";
+	private static final String CORPUS = "parser_corpus.txt";
+
+	@Override
+	public void onReceive(Context context, Intent intent)
+	{
+		final Context appContext = context.getApplicationContext();
+		final int rounds = intent.getIntExtra("rounds", 200);
+		final int warmup = intent.getIntExtra("warmup", 20);
+		final boolean journal = intent.getBooleanExtra("journal", false);
+
+		if ("writes".equals(intent.getStringExtra("mode")))
+		{
+			final int rows = intent.getIntExtra("rows", 5000);
+			new Thread(new Runnable() {
+				@Override
+				public void run()
+				{
+					for (String line : new WriteBenchmark(appContext, rows).run())
+						Log.i(TAG, line);
+				}
+			}, TAG).start();
+			return;
+		}
+
+		if ("plans".equals(intent.getStringExtra("mode")))
+		{
+			new Thread(new Runnable() {
+				@Override
+				public void run()
+				{
+					for (String line : new QueryPlanVerifier(appContext).run())
+						Log.i(TAG, line);
+				}
+			}, TAG).start();
+			return;
+		}
+
+		if ("ingest".equals(intent.getStringExtra("mode")))
+		{
+			final int trackers = intent.getIntExtra("trackers", 50);
+			final int messages = intent.getIntExtra("messages", 20);
+			final int lanes = intent.getIntExtra("lanes", PartitionedExecutor.defaultParallelism());
+			new Thread(new Runnable() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (String line : new IngestBenchmark(appContext, trackers, messages).run(lanes))
+							Log.i(TAG, line);
+					}
+					catch (InterruptedException e)
+					{
+						Log.e(TAG, "Ingest benchmark interrupted");
+					}
+				}
+			}, TAG).start();
+			return;
+		}
+
+		new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					List<ParserBenchmark.Sample> samples = ParserBenchmark.loadCorpus(appContext.getAssets().open(CORPUS));
+					if (journal)
+					{
+						for (MessageJournal.Entry entry : MessageJournal.getInstance(appContext).read())
+							samples.add(new ParserBenchmark.Sample("journal", entry.body));
+					}
+					Log.i(TAG, "Corpus: " + samples.size() + " messages, " + warmup + " warmup rounds, " + rounds + " rounds");
+					ParserBenchmark benchmark = new ParserBenchmark(samples);
+					for (String line : benchmark.report(benchmark.run(warmup, rounds)))
+						Log.i(TAG, line);
+				}
+				catch (IOException e)
+				{
+					Log.e(TAG, "Failed to read corpus", e);
+				}
+			}
+		}, TAG).start();
+	}
+}
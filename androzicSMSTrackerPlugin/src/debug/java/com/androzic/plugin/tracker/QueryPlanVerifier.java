@@ -0,0 +1,132 @@
+package com.androzic.plugin.tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that queries of TrackerDataAccess use indexes, so that
+ * schema changes which lose an index are noticed. Queries are built from selections,
+ * sort orders and compiled statements of TrackerDataAccess, so they do not drift from
+ * the queries the app runs. Queries are checked against a separate database with
+ * current schema which is deleted afterwards.
+ */
+final class QueryPlanVerifier
+{
+	private static final String DATABASE = "query_plan.db";
+
+	private static final String HISTORY = TrackerDataAccess.TABLE_HISTORY;
+	private static final String TRACKERS = TrackerDataAccess.TABLE_TRACKERS;
+	private static final String SENDER_PARSERS = TrackerDataAccess.TABLE_SENDER_PARSERS;
+	private static final String PARSER_STATS = TrackerDataAccess.TABLE_PARSER_STATS;
+
+	/**
+	 * Name, SQL statement and whether full table scan is expected. Scans are expected for
+	 * queries which read whole table and for tables bounded to a few hundred rows.
+	 */
+	private static final Object[][] QUERIES = new Object[][] {
+		{ "getTracker", select(TRACKERS, TrackerDataAccess.WHERE_SENDER, null), false },
+		{ "getHeadersOfTrackers", select(TRACKERS, null, null), true },
+		{ "getTrackersOverview", select(TRACKERS, TrackerDataAccess.WHERE_HAS_FIX, null), true },
+		{ "clearAllMoids", select(TRACKERS, TrackerDataAccess.WHERE_HAS_MOID, null), true },
+		{ "clearAllMoids", update(TRACKERS, TrackerDataAccess.WHERE_HAS_MOID), true },
+		{ "clearAllMoids", select(HISTORY, TrackerDataAccess.WHERE_HAS_MOID, null), true },
+		{ "clearAllMoids", update(HISTORY, TrackerDataAccess.WHERE_HAS_MOID), true },
+		{ "removeTracker", select(TRACKERS, TrackerDataAccess.WHERE_SENDER, null), false },
+		{ "removeTracker", delete(TRACKERS, TrackerDataAccess.WHERE_TRACKER), false },
+		{ "getTrackerFootprints", select(HISTORY, TrackerDataAccess.WHERE_FOOTPRINTS, TrackerDataAccess.ORDER_FOOTPRINTS), false },
+		{ "hasHistoryPoint", select(HISTORY, TrackerDataAccess.WHERE_FOOTPRINT_AT, null), false },
+		{ "clearFootprintMoids", update(HISTORY, TrackerDataAccess.WHERE_FOOTPRINTS), false },
+		{ "getSenderParsers", delete(SENDER_PARSERS, TrackerDataAccess.WHERE_STALE_SENDER), true },
+		{ "getSenderParsers", select(SENDER_PARSERS, null, TrackerDataAccess.ORDER_SENDER_PARSERS), true },
+		{ "getParserStatistics", select(PARSER_STATS, null, null), true },
+		{ "clearParserStatistics", delete(PARSER_STATS, null), true },
+		{ "insertHistoryPoint", TrackerDataAccess.STATEMENTS[TrackerDataAccess.STATEMENT_INSERT_HISTORY], false },
+		{ "insertTracker", TrackerDataAccess.STATEMENTS[TrackerDataAccess.STATEMENT_INSERT_TRACKER], false },
+		{ "updateTracker", TrackerDataAccess.STATEMENTS[TrackerDataAccess.STATEMENT_UPDATE_TRACKER], false },
+		{ "saveFootprintMoid", TrackerDataAccess.STATEMENTS[TrackerDataAccess.STATEMENT_UPDATE_FOOTPRINT_MOID], false },
+	};
+
+	private static String select(String table, String where, String order)
+	{
+		return "SELECT * FROM " + table + (where != null ? " WHERE " + where : "") + (order != null ? " ORDER BY " + order : "");
+	}
+
+	private static String update(String table, String where)
+	{
+		return "UPDATE " + table + " SET " + TrackerDataAccess.MOID + " = 0 WHERE " + where;
+	}
+
+	private static String delete(String table, String where)
+	{
+		return "DELETE FROM " + table + (where != null ? " WHERE " + where : "");
+	}
+
+	private final Context context;
+
+	QueryPlanVerifier(Context context)
+	{
+		this.context = context;
+	}
+
+	/**
+	 * Explains every query and returns report lines, failed queries are marked with FAIL
+	 */
+	List<String> run()
+	{
+		List<String> report = new ArrayList<String>();
+		int failed = 0;
+
+		context.deleteDatabase(DATABASE);
+		TrackerDataAccess dataAccess = new TrackerDataAccess(context, DATABASE);
+		SQLiteDatabase db = dataAccess.getWritableDatabase();
+		try
+		{
+			for (Object[] query : QUERIES)
+			{
+				String sql = (String) query[1];
+				boolean scanExpected = (Boolean) query[2];
+				String plan = explain(db, sql);
+				boolean scan = plan.contains("SCAN") || plan.contains("TEMP B-TREE");
+				boolean ok = scanExpected || ! scan;
+				if (! ok)
+					failed++;
+				report.add(String.format(Locale.US, "%-4s %-22s %s", ok ? "OK" : "FAIL", query[0], plan));
+			}
+		}
+		finally
+		{
+			dataAccess.close();
+			context.deleteDatabase(DATABASE);
+		}
+		report.add(failed == 0 ? "All queries use indexes" : failed + " queries do not use indexes");
+		return report;
+	}
+
+	private String explain(SQLiteDatabase db, String sql)
+	{
+		int count = 0;
+		for (int i = 0; i < sql.length(); i++)
+			if (sql.charAt(i) == '?')
+				count++;
+		String[] args = new String[count];
+		for (int i = 0; i < count; i++)
+			args[i] = "1";
+
+		StringBuilder plan = new StringBuilder();
+		Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+		int detail = cursor.getColumnIndex("detail");
+		while (cursor.moveToNext())
+		{
+			if (plan.length() > 0)
+				plan.append("; ");
+			plan.append(cursor.getString(detail));
+		}
+		cursor.close();
+		return plan.toString();
+	}
+}
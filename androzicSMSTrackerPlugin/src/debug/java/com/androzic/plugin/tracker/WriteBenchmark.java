@@ -0,0 +1,166 @@
+package com.androzic.plugin.tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Write path micro-benchmark. Compares history insert and footprint map ID update done
+ * with ContentValues (SQL is compiled for every row) and with precompiled statements
+ * of TrackerDataAccess. Runs on a separate database which is deleted afterwards.
+ */
+final class WriteBenchmark
+{
+	private static final String TAG = "WriteBenchmark";
+	private static final String DATABASE = "write_benchmark.db";
+
+	private final Context context;
+	private final int rows;
+
+	WriteBenchmark(Context context, int rows)
+	{
+		this.context = context;
+		this.rows = rows;
+	}
+
+	/**
+	 * Runs both variants of every operation and returns report lines
+	 */
+	List<String> run()
+	{
+		List<String> report = new ArrayList<String>();
+		report.add(String.format(Locale.US, "%d rows per run", rows));
+
+		context.deleteDatabase(DATABASE);
+		TrackerDataAccess dataAccess = new TrackerDataAccess(context, DATABASE);
+		SQLiteDatabase db = dataAccess.getWritableDatabase();
+		try
+		{
+			Tracker tracker = new Tracker();
+			tracker.sender = "+79000000000";
+			tracker.name = tracker.sender;
+			tracker.time = 1;
+			dataAccess.updateTracker(tracker);
+
+			// Warm up both paths
+			insertWithValues(db, tracker, rows / 10);
+			insertWithStatement(dataAccess, db, tracker, rows / 10);
+
+			long values = insertWithValues(db, tracker, rows);
+			long statement = insertWithStatement(dataAccess, db, tracker, rows);
+			report.add(line("insert history", values, statement));
+
+			values = updateWithValues(db);
+			statement = updateWithStatement(dataAccess, db);
+			report.add(line("update moid", values, statement));
+		}
+		finally
+		{
+			dataAccess.close();
+			context.deleteDatabase(DATABASE);
+		}
+		return report;
+	}
+
+	private String line(String name, long values, long statement)
+	{
+		return String.format(Locale.US, "%-16s values %6.2f us/row, statement %6.2f us/row, x%.2f", name, values / 1e3 / rows, statement / 1e3 / rows, (double) values / statement);
+	}
+
+	private long insertWithValues(SQLiteDatabase db, Tracker tracker, int count)
+	{
+		long start = System.nanoTime();
+		db.beginTransaction();
+		try
+		{
+			ContentValues values = new ContentValues();
+			for (int i = 0; i < count; i++)
+			{
+				tracker.time++;
+				values.clear();
+				values.put(TrackerDataAccess.TRACKER_ID, tracker._id);
+				values.put(TrackerDataAccess.LATITUDE, tracker.latitude);
+				values.put(TrackerDataAccess.LONGITUDE, tracker.longitude);
+				values.put(TrackerDataAccess.SPEED, tracker.speed);
+				values.put(TrackerDataAccess.BATTERY, tracker.battery);
+				values.put(TrackerDataAccess.SIGNAL, tracker.signal);
+				values.put(TrackerDataAccess.TIME, Long.valueOf(tracker.time));
+				db.insert(TrackerDataAccess.TABLE_HISTORY, null, values);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private long insertWithStatement(TrackerDataAccess dataAccess, SQLiteDatabase db, Tracker tracker, int count)
+	{
+		long start = System.nanoTime();
+		db.beginTransaction();
+		try
+		{
+			for (int i = 0; i < count; i++)
+			{
+				tracker.time++;
+				dataAccess.insertHistoryPoint(db, tracker);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private long updateWithValues(SQLiteDatabase db)
+	{
+		long start = System.nanoTime();
+		db.beginTransaction();
+		try
+		{
+			ContentValues values = new ContentValues();
+			for (long id = 1; id <= rows; id++)
+			{
+				// saveFootprintMoid logs every call too
+				Log.w(TAG, ">>>> saveFootprintMoid(" + id + "," + id + ")");
+				values.clear();
+				values.put(TrackerDataAccess.MOID, String.valueOf(id));
+				db.update(TrackerDataAccess.TABLE_HISTORY, values, TrackerDataAccess._POINT_ID + " = ?", new String[] { String.valueOf(id) });
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private long updateWithStatement(TrackerDataAccess dataAccess, SQLiteDatabase db)
+	{
+		long start = System.nanoTime();
+		db.beginTransaction();
+		try
+		{
+			for (long id = 1; id <= rows; id++)
+				dataAccess.saveFootprintMoid(id, id);
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return System.nanoTime() - start;
+	}
+}
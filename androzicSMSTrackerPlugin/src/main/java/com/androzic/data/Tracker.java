@@ -43,6 +43,10 @@ public class Tracker extends MapObject
 	public int signal;
 	public String imei;
 	public String sender;
+	/**
+	 * Message is an alarm (SOS) report
+	 */
+	public boolean alarm;
 
 	public Tracker()
 	{
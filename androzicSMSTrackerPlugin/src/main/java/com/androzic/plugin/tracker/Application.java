@@ -22,7 +22,6 @@ package com.androzic.plugin.tracker;
 
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Set;
 
 import android.content.ContentProviderClient;
@@ -53,7 +52,7 @@ public class Application extends BaseApplication
 	int markerColor = Color.BLUE;
 
 	/**
-	 * Sends tracker to Androzic map
+	 * Sends tracker to Androzic map, must be called on ingest writer thread
 	 * 
 	 * @throws RemoteException
 	 */
@@ -129,7 +128,7 @@ public class Application extends BaseApplication
 					Uri uri = contentProvider.insert(DataContract.MAPOBJECTS_URI, values);
 					if (uri != null)
 					{
-						dataAccess.saveFootprintMoid(String.valueOf(footprint._id), String.valueOf(ContentUris.parseId(uri)));
+						dataAccess.saveFootprintMoid(footprint._id, ContentUris.parseId(uri));
 					}
 				}
 				else
@@ -167,13 +166,13 @@ public class Application extends BaseApplication
 	 */
 	void sendMapObjects() throws RemoteException
 	{
-		TrackerDataAccess dataAccess = new TrackerDataAccess(this);
+		TrackerDataAccess dataAccess = TrackerDataAccess.getInstance(this);
 		Tracker tracker;
 		
-		Cursor cursor = dataAccess.getHeadersOfTrackers();
+		Cursor cursor = dataAccess.getTrackersOverview();
 		if (!cursor.moveToFirst())
 		{
-			dataAccess.close();
+			cursor.close();
 			return;
 		}
 		do
@@ -182,11 +181,11 @@ public class Application extends BaseApplication
 			sendTrackerOnMap(dataAccess, tracker);
 		}
 		while (cursor. moveToNext());
-		dataAccess.close();
+		cursor.close();
 	}
 
 	/**
-	 * Removes tracker from Androzic map
+	 * Removes tracker from Androzic map, must be called on ingest writer thread
 	 * 
 	 * @throws RemoteException
 	 */
@@ -232,44 +231,10 @@ public class Application extends BaseApplication
 	 */
 	void removeMapObjects() throws RemoteException
 	{
-		TrackerDataAccess dataAccess = new TrackerDataAccess(this);
-		Cursor cursor = dataAccess.getHeadersOfTrackers();
-		if (!cursor.moveToFirst())
-		{
-			dataAccess.close();
+		TrackerDataAccess dataAccess = TrackerDataAccess.getInstance(this);
+		Set<Long> moids = dataAccess.clearAllMoids();
+		if (moids.isEmpty())
 			return;
-		}
-		Set<Long> moids = new HashSet<Long>();
-		do
-		{
-			Tracker tracker = dataAccess.getFullInfoTracker(cursor);
-			if (tracker.moid > 0)
-			{
-				moids.add(tracker.moid);
-				tracker.moid = 0;
-				dataAccess.updateTracker(tracker);
-			}
-			
-			Cursor footprintsCursor = dataAccess.getTrackerFootprints(tracker._id);
-			if (footprintsCursor.moveToFirst())
-			{
-				do
-				{
-					TrackerFootprins footprint = dataAccess.getTrackerFootprint(footprintsCursor);
-					if (footprint.moid > 0)
-					{
-						moids.add(footprint.moid);
-						dataAccess.saveFootprintMoid(footprint._id, 0);
-					}
-					
-					
-				}
-				while (footprintsCursor.moveToNext());
-			}
-			
-			footprintsCursor.close();
-		}
-		while (cursor.moveToNext());
 
 		ContentProviderClient contentProvider = getContentResolver().acquireContentProviderClient(DataContract.MAPOBJECTS_URI);
 		String[] args = new String[moids.size()];
@@ -326,5 +291,8 @@ public class Application extends BaseApplication
 		setInstance(this);
 		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
 		markerColor = sharedPreferences.getInt(getString(R.string.pref_tracker_markercolor), getResources().getColor(R.color.marker));
+		DeviceFormats.load(this);
+		ParserAffinity.load(this);
+		TrackerIngest.getInstance(this).replay();
 	}
 }
@@ -0,0 +1,123 @@
+package com.androzic.plugin.tracker;
+
+/**
+ * Decodes decimal coordinate directly from a span of message text, without creating
+ * intermediate strings. Accepts optional sign, leading zeros (037.730640), point or
+ * comma as decimal separator and hemisphere suffix (N/S for latitude, E/W for longitude).
+ * Value is range checked while digits are read.
+ */
+final class CoordinateDecoder
+{
+	/**
+	 * Maximum absolute coordinate value, the same bound is used for both axes as some
+	 * trackers are known to send latitude above 90 degrees
+	 */
+	static final int MAX_DEGREES = 180;
+
+	// Digits beyond this are ignored, they are far below GPS accuracy
+	private static final int MAX_FRACTION_DIGITS = 9;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+
+	private CoordinateDecoder()
+	{
+	}
+
+	/**
+	 * Tells if coordinates are within the bounds accepted by decoder, used for
+	 * coordinates which are not decoded from text
+	 */
+	static boolean isValid(double latitude, double longitude)
+	{
+		return Math.abs(latitude) <= MAX_DEGREES && Math.abs(longitude) <= MAX_DEGREES;
+	}
+
+	static double decodeLatitude(CharSequence text, int start, int end)
+	{
+		return decode(text, start, end, 'N', 'S');
+	}
+
+	static double decodeLongitude(CharSequence text, int start, int end)
+	{
+		return decode(text, start, end, 'E', 'W');
+	}
+
+	/**
+	 * @return coordinate value or NaN if span is not a valid coordinate
+	 */
+	private static double decode(CharSequence text, int start, int end, char positive, char negative)
+	{
+		while (start < end && Character.isWhitespace(text.charAt(start)))
+			start++;
+		while (end > start && Character.isWhitespace(text.charAt(end - 1)))
+			end--;
+		if (start == end)
+			return Double.NaN;
+
+		boolean minus = false;
+		char c = text.charAt(start);
+		if (c == '-' || c == '+')
+		{
+			minus = c == '-';
+			start++;
+		}
+
+		// Hemisphere suffix
+		c = Character.toUpperCase(text.charAt(end - 1));
+		if (c == positive || c == negative)
+		{
+			if (c == negative)
+			{
+				if (minus)
+					return Double.NaN;
+				minus = true;
+			}
+			end--;
+		}
+
+		long mantissa = 0;
+		int degrees = 0;
+		int integerDigits = 0;
+		int fractionDigits = -1;
+		for (int i = start; i < end; i++)
+		{
+			c = text.charAt(i);
+			if (c >= '0' && c <= '9')
+			{
+				if (fractionDigits < 0)
+				{
+					degrees = degrees * 10 + (c - '0');
+					if (degrees > MAX_DEGREES)
+						return Double.NaN;
+					integerDigits++;
+				}
+				else if (fractionDigits < MAX_FRACTION_DIGITS)
+				{
+					fractionDigits++;
+				}
+				else
+				{
+					continue;
+				}
+				mantissa = mantissa * 10 + (c - '0');
+			}
+			else if ((c == '.' || c == ',') && fractionDigits < 0)
+			{
+				fractionDigits = 0;
+			}
+			else
+			{
+				return Double.NaN;
+			}
+		}
+		if (integerDigits == 0)
+			return Double.NaN;
+		if (fractionDigits < 0)
+			fractionDigits = 0;
+
+		// Both operands are exact so division gives correctly rounded result
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		if (value > MAX_DEGREES)
+			return Double.NaN;
+		return minus ? -value : value;
+	}
+}
@@ -0,0 +1,325 @@
+package com.androzic.plugin.tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Table driven parser of device format described as data (see DeviceFormats). Every field
+ * is located by its marker and its value is read up to the first delimiter, so parsing
+ * costs one marker search per field and no regular expressions are involved.
+ */
+class DeviceFormat implements TrackerMessageParser
+{
+	enum Kind
+	{
+		LATITUDE, LONGITUDE, SPEED, TIME, BATTERY, SIGNAL, IMEI
+	}
+
+	enum TimeLayout
+	{
+		MONTH_DAY_TIME("MM-dd HH:mm:ss"), DAY_MONTH_YEAR_TIME("dd/MM/yy HH:mm"), YEAR_MONTH_DAY_TIME("yy/MM/dd HH:mm");
+
+		final String pattern;
+
+		TimeLayout(String pattern)
+		{
+			this.pattern = pattern;
+		}
+
+		static TimeLayout forPattern(String pattern)
+		{
+			for (TimeLayout layout : values())
+			{
+				if (layout.pattern.equals(pattern))
+					return layout;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Longest timestamp supported by TrackerTimeDecoder including some spaces
+	 */
+	private static final int MAX_TIME_LENGTH = 24;
+
+	static final class Field
+	{
+		final Kind kind;
+		final String marker;
+		final boolean[] delimiters;
+		final boolean required;
+		/**
+		 * Speed: multiplier to m/s, battery: 100 for voltage, 1 for percent, 0 for level
+		 * (F/L), signal: 1 for percent, 0 for level
+		 */
+		final double scale;
+		final TimeLayout layout;
+
+		Field(Kind kind, String marker, String delimiters, boolean required, double scale, TimeLayout layout)
+		{
+			this.kind = kind;
+			this.marker = marker;
+			this.delimiters = new boolean[128];
+			for (int i = 0; i < delimiters.length(); i++)
+			{
+				char c = delimiters.charAt(i);
+				if (c < 128)
+					this.delimiters[c] = true;
+			}
+			this.required = required;
+			this.scale = scale;
+			this.layout = layout;
+		}
+
+		boolean isDelimiter(char c)
+		{
+			return Character.isWhitespace(c) || (c < 128 && delimiters[c]);
+		}
+	}
+
+	private final String name;
+	private final int maxLength;
+	private final Field[] fields;
+	private final int fingerprint;
+	// Required markers without fingerprint signal, checked by substring search
+	private final String[] markers;
+
+	DeviceFormat(String name, int maxLength, List<Field> fields)
+	{
+		this.name = name;
+		this.maxLength = maxLength;
+		this.fields = fields.toArray(new Field[fields.size()]);
+		int mask = 0;
+		List<String> markers = new ArrayList<String>();
+		for (Field field : this.fields)
+		{
+			if (! field.required)
+				continue;
+			int signal = fingerprintOf(field.marker);
+			if (signal != 0)
+				mask |= signal;
+			else
+				markers.add(field.marker);
+		}
+		this.fingerprint = mask;
+		this.markers = markers.toArray(new String[markers.size()]);
+	}
+
+	/**
+	 * Returns fingerprint signal corresponding to marker, if there is one
+	 */
+	private static int fingerprintOf(String marker)
+	{
+		String m = marker.toLowerCase();
+		if ("lat:".equals(m))
+			return MessageFingerprint.LAT;
+		if ("long:".equals(m))
+			return MessageFingerprint.LONG;
+		if ("lon:".equals(m))
+			return MessageFingerprint.LON;
+		if ("speed:".equals(m))
+			return MessageFingerprint.SPEED;
+		if ("signal:".equals(m))
+			return MessageFingerprint.SIGNAL;
+		if ("imei:".equals(m))
+			return MessageFingerprint.IMEI;
+		if ("bat:".equals(m))
+			return MessageFingerprint.BAT;
+		if ("t:".equals(m))
+			return MessageFingerprint.TIME;
+		return 0;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public int getMaxLength()
+	{
+		return maxLength;
+	}
+
+	@Override
+	public boolean accepts(MessageFingerprint fingerprint)
+	{
+		if (! fingerprint.has(this.fingerprint))
+			return false;
+		for (String marker : markers)
+		{
+			if (! fingerprint.contains(marker))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean parse(String text, long received, Tracker tracker)
+	{
+		int length = text.length();
+		int[] starts = new int[fields.length];
+		int[] ends = new int[fields.length];
+
+		// Locate all fields first so that tracker is not touched if message does not match
+		for (int i = 0; i < fields.length; i++)
+		{
+			Field field = fields[i];
+			starts[i] = -1;
+			// Marker must start a word, so that "lat=" is not found inside "flat="
+			int marker = Markers.indexOf(text, field.marker, 0);
+			while (marker > 0 && ! Markers.isWordStart(text, marker))
+				marker = Markers.indexOf(text, field.marker, marker + 1);
+			if (marker < 0)
+			{
+				if (field.required)
+					return false;
+				continue;
+			}
+			int start = Markers.skipSpaces(text, marker + field.marker.length());
+			int end = start;
+			if (field.kind == Kind.TIME)
+			{
+				end = Math.min(length, start + MAX_TIME_LENGTH);
+			}
+			else
+			{
+				while (end < length && ! field.isDelimiter(text.charAt(end)))
+					end++;
+			}
+			if (end == start)
+			{
+				if (field.required)
+					return false;
+				continue;
+			}
+			starts[i] = start;
+			ends[i] = end;
+		}
+
+		double latitude = Double.NaN;
+		double longitude = Double.NaN;
+		for (int i = 0; i < fields.length; i++)
+		{
+			if (starts[i] < 0)
+				continue;
+			if (fields[i].kind == Kind.LATITUDE)
+				latitude = CoordinateDecoder.decodeLatitude(text, starts[i], ends[i]);
+			if (fields[i].kind == Kind.LONGITUDE)
+				longitude = CoordinateDecoder.decodeLongitude(text, starts[i], ends[i]);
+		}
+		if (Double.isNaN(latitude) || Double.isNaN(longitude))
+			return false;
+
+		tracker.latitude = latitude;
+		tracker.longitude = longitude;
+
+		for (int i = 0; i < fields.length; i++)
+		{
+			if (starts[i] < 0)
+				continue;
+			Field field = fields[i];
+			int start = starts[i];
+			int end = ends[i];
+			switch (field.kind)
+			{
+				case SPEED:
+					double speed = parseDecimal(text, start, end);
+					if (! Double.isNaN(speed))
+						tracker.speed = speed * field.scale;
+					break;
+				case TIME:
+					tracker.time = decodeTime(field.layout, text, start, end, received);
+					break;
+				case BATTERY:
+					tracker.battery = parseLevel(text, start, end, field.scale, tracker.battery);
+					break;
+				case SIGNAL:
+					tracker.signal = parseLevel(text, start, end, field.scale, tracker.signal);
+					break;
+				case IMEI:
+					tracker.imei = text.substring(start, end);
+					break;
+				default:
+					break;
+			}
+		}
+		return true;
+	}
+
+	private static long decodeTime(TimeLayout layout, String text, int start, int end, long received)
+	{
+		switch (layout)
+		{
+			case MONTH_DAY_TIME:
+				return TrackerTimeDecoder.decodeMonthDayTime(text, start, end, TrackerTimeDecoder.deviceZone(received), received);
+			case DAY_MONTH_YEAR_TIME:
+				return TrackerTimeDecoder.decodeDayMonthYearTime(text, start, end, TrackerTimeDecoder.deviceZone(received));
+			case YEAR_MONTH_DAY_TIME:
+				return TrackerTimeDecoder.decodeYearMonthDayTime(text, start, end, TrackerTimeDecoder.deviceZone(received));
+			default:
+				return TrackerTimeDecoder.UNKNOWN;
+		}
+	}
+
+	/**
+	 * Parses level: F and L for level scale (0), number with optional % or V suffix otherwise
+	 */
+	private static int parseLevel(String text, int start, int end, double scale, int fallback)
+	{
+		if (scale == 0)
+		{
+			char c = Character.toUpperCase(text.charAt(start));
+			if (c == 'F')
+				return Tracker.LEVEL_FULL;
+			if (c == 'L' || c == '0')
+				return Tracker.LEVEL_LOW;
+			return fallback;
+		}
+		char last = Character.toUpperCase(text.charAt(end - 1));
+		if (last == '%' || last == 'V')
+			end--;
+		double value = parseDecimal(text, start, end);
+		if (Double.isNaN(value))
+			return fallback;
+		return (int) Math.round(value * scale);
+	}
+
+	/**
+	 * Parses non-negative decimal number with point or comma separator
+	 * 
+	 * @return number or NaN if span is not a number or has too many digits
+	 */
+	static double parseDecimal(String text, int start, int end)
+	{
+		long mantissa = 0;
+		long divider = 1;
+		boolean fraction = false;
+		boolean digits = false;
+		for (int i = start; i < end; i++)
+		{
+			char c = text.charAt(i);
+			if (Markers.isDigit(c))
+			{
+				if (mantissa > (Long.MAX_VALUE - 9) / 10 || (fraction && divider > Long.MAX_VALUE / 10))
+					return Double.NaN;
+				mantissa = mantissa * 10 + (c - '0');
+				if (fraction)
+					divider *= 10;
+				digits = true;
+			}
+			else if ((c == '.' || c == ',') && ! fraction)
+			{
+				fraction = true;
+			}
+			else
+			{
+				return Double.NaN;
+			}
+		}
+		return digits ? (double) mantissa / divider : Double.NaN;
+	}
+}
@@ -0,0 +1,241 @@
+package com.androzic.plugin.tracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Loads device formats described as data and registers them as parsers. Formats are
+ * bundled in assets/formats.json and can be overridden (by name) or extended with JSON
+ * entered in preferences. Bundled formats are always active, so a format is bundled
+ * only together with samples of real device messages in debug parser corpus. Example:
+ * 
+ * <pre>
+ * [
+ *   {
+ *     "name": "MyClone",
+ *     "maxLength": 320,
+ *     "fields": [
+ *       { "field": "latitude", "marker": "lat:" },
+ *       { "field": "longitude", "marker": "lon:", "delimiters": "," },
+ *       { "field": "speed", "marker": "speed:", "unit": "km/h" },
+ *       { "field": "time", "marker": "T:", "layout": "yy/MM/dd HH:mm" },
+ *       { "field": "battery", "marker": "bat:", "unit": "%" },
+ *       { "field": "signal", "marker": "signal:", "unit": "level" },
+ *       { "field": "imei", "marker": "imei:", "required": true }
+ *     ]
+ *   }
+ * ]
+ * </pre>
+ * 
+ * Latitude and longitude are always required. Value of a field starts after its marker
+ * and ends at whitespace or at one of the delimiters. Speed units: km/h (default), m/s,
+ * knots, mph. Battery units: % (default), V, level (F/L). Signal units: level (default), %.
+ * Time layouts: MM-dd HH:mm:ss, dd/MM/yy HH:mm, yy/MM/dd HH:mm.
+ * <p>
+ * Formats are compiled once and recompiled only if their source changes.
+ */
+final class DeviceFormats
+{
+	private static final String TAG = "DeviceFormats";
+	private static final String ASSET = "formats.json";
+
+	private static String compiledSource = null;
+	private static List<DeviceFormat> registered = new ArrayList<DeviceFormat>();
+
+	private DeviceFormats()
+	{
+	}
+
+	/**
+	 * Compiles bundled and user defined formats and registers them in parser registry
+	 */
+	static synchronized void load(Context context)
+	{
+		String bundled = readAsset(context, ASSET);
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		String custom = prefs.getString(context.getString(R.string.pref_tracker_device_formats), "");
+
+		String source = bundled + '\u0000' + custom;
+		if (source.equals(compiledSource))
+			return;
+
+		Map<String, DeviceFormat> formats = new LinkedHashMap<String, DeviceFormat>();
+		compile(bundled, formats);
+		compile(custom, formats);
+
+		for (DeviceFormat format : registered)
+			TrackerMessageParsers.unregister(format);
+		registered = new ArrayList<DeviceFormat>(formats.values());
+		for (DeviceFormat format : registered)
+			TrackerMessageParsers.register(format);
+		compiledSource = source;
+
+		Log.i(TAG, "Registered " + registered.size() + " device formats");
+	}
+
+	/**
+	 * Compiles formats from JSON array, formats with same name are replaced
+	 */
+	static void compile(String json, Map<String, DeviceFormat> formats)
+	{
+		if (json == null || "".equals(json.trim()))
+			return;
+		try
+		{
+			JSONArray array = new JSONArray(json);
+			for (int i = 0; i < array.length(); i++)
+			{
+				try
+				{
+					DeviceFormat format = compile(array.getJSONObject(i));
+					TrackerMessageParser existing = TrackerMessageParsers.get(format.getName());
+					if (existing != null && ! (existing instanceof DeviceFormat))
+					{
+						Log.e(TAG, "Format name is already used by built-in parser: " + format.getName());
+						continue;
+					}
+					formats.put(format.getName(), format);
+				}
+				catch (JSONException e)
+				{
+					Log.e(TAG, "Invalid format #" + i + ": " + e.getMessage());
+				}
+			}
+		}
+		catch (JSONException e)
+		{
+			Log.e(TAG, "Invalid formats: " + e.getMessage());
+		}
+	}
+
+	static DeviceFormat compile(JSONObject object) throws JSONException
+	{
+		String name = object.getString("name");
+		int maxLength = object.optInt("maxLength", ParsingGuard.SMS_LENGTH * 2);
+
+		boolean latitude = false;
+		boolean longitude = false;
+		List<DeviceFormat.Field> fields = new ArrayList<DeviceFormat.Field>();
+		JSONArray array = object.getJSONArray("fields");
+		for (int i = 0; i < array.length(); i++)
+		{
+			JSONObject field = array.getJSONObject(i);
+			String kindName = field.getString("field");
+			DeviceFormat.Kind kind;
+			try
+			{
+				kind = DeviceFormat.Kind.valueOf(kindName.toUpperCase());
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new JSONException("Unknown field: " + kindName);
+			}
+			String marker = field.getString("marker");
+			if ("".equals(marker))
+				throw new JSONException("Empty marker of field: " + kindName);
+			String delimiters = field.optString("delimiters", "");
+			boolean required = field.optBoolean("required", false);
+			String unit = field.optString("unit", null);
+			double scale = 1;
+			DeviceFormat.TimeLayout layout = null;
+
+			switch (kind)
+			{
+				case LATITUDE:
+					latitude = true;
+					required = true;
+					break;
+				case LONGITUDE:
+					longitude = true;
+					required = true;
+					break;
+				case SPEED:
+					scale = speedScale(unit == null ? "km/h" : unit);
+					break;
+				case BATTERY:
+					scale = levelScale(unit == null ? "%" : unit);
+					break;
+				case SIGNAL:
+					scale = levelScale(unit == null ? "level" : unit);
+					break;
+				case TIME:
+					String pattern = field.getString("layout");
+					layout = DeviceFormat.TimeLayout.forPattern(pattern);
+					if (layout == null)
+						throw new JSONException("Unsupported time layout: " + pattern);
+					break;
+				default:
+					break;
+			}
+			fields.add(new DeviceFormat.Field(kind, marker, delimiters, required, scale, layout));
+		}
+		if (! latitude || ! longitude)
+			throw new JSONException("Latitude and longitude fields are required");
+
+		return new DeviceFormat(name, maxLength, fields);
+	}
+
+	private static double speedScale(String unit) throws JSONException
+	{
+		if ("km/h".equals(unit))
+			return 1 / 3.6;
+		if ("m/s".equals(unit))
+			return 1;
+		if ("knots".equals(unit))
+			return 1852 / 3600.0;
+		if ("mph".equals(unit))
+			return 1609.344 / 3600;
+		throw new JSONException("Unknown speed unit: " + unit);
+	}
+
+	private static double levelScale(String unit) throws JSONException
+	{
+		if ("%".equals(unit))
+			return 1;
+		if ("V".equals(unit))
+			return 100;
+		if ("level".equals(unit))
+			return 0;
+		throw new JSONException("Unknown level unit: " + unit);
+	}
+
+	private static String readAsset(Context context, String name)
+	{
+		try
+		{
+			InputStream stream = context.getAssets().open(name);
+			try
+			{
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				byte[] chunk = new byte[4096];
+				int n;
+				while ((n = stream.read(chunk)) > 0)
+					buffer.write(chunk, 0, n);
+				return buffer.toString("UTF-8");
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Failed to read " + name, e);
+			return "";
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.androzic.plugin.tracker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Detects repeated delivery of the same tracker message. Remembers 64-bit hashes of
+ * sender, message body and device timestamp of recently received messages. Messages
+ * without device timestamp are never treated as duplicates because tracker may send
+ * identical reports while it stays in place.
+ */
+final class DuplicateFilter
+{
+	static final int CAPACITY = 1024;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	@SuppressWarnings("serial")
+	private static final Map<Long, Boolean> seen = new LinkedHashMap<Long, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest)
+		{
+			return size() > CAPACITY;
+		}
+	};
+
+	private DuplicateFilter()
+	{
+	}
+
+	/**
+	 * Remembers message and tells if it was already seen
+	 *
+	 * @param time device timestamp parsed from message or 0 if it has none
+	 */
+	static boolean isDuplicate(String sender, String body, long time)
+	{
+		if (time == TrackerTimeDecoder.UNKNOWN)
+			return false;
+		Long key = hash(sender, body, time);
+		synchronized (seen)
+		{
+			return seen.put(key, Boolean.TRUE) != null;
+		}
+	}
+
+	/**
+	 * FNV-1a hash of sender, body and time
+	 */
+	static long hash(String sender, String body, long time)
+	{
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < sender.length(); i++)
+			hash = (hash ^ sender.charAt(i)) * FNV_PRIME;
+		hash = (hash ^ 0xffff) * FNV_PRIME;
+		for (int i = 0; i < body.length(); i++)
+			hash = (hash ^ body.charAt(i)) * FNV_PRIME;
+		for (int i = 0; i < 64; i += 8)
+			hash = (hash ^ ((time >>> i) & 0xff)) * FNV_PRIME;
+		return hash;
+	}
+}
@@ -32,23 +32,47 @@ public class Executor extends BroadcastReceiver
 	public void onReceive(Context context, Intent intent)
 	{
 		String action = intent.getAction();
-		Application application = Application.getApplication();
-		try
+		final Application application = Application.getApplication();
+		// Map objects are updated by the same thread that saves received data
+		final Context appContext = context.getApplicationContext();
+		TrackerIngest ingest = TrackerIngest.getInstance(context);
+		if (action.equals("com.androzic.plugins.action.INITIALIZE"))
 		{
-			if (action.equals("com.androzic.plugins.action.INITIALIZE"))
-			{
-				PreferenceManager.setDefaultValues(context, R.xml.preferences, true);
-				application.sendMapObjects();
-			}
-			else if (action.equals("com.androzic.plugins.action.FINALIZE"))
-			{
-				application.removeMapObjects();
-			}
+			PreferenceManager.setDefaultValues(context, R.xml.preferences, true);
+			ingest.post(new Runnable() {
+				@Override
+				public void run()
+				{
+					// Opens shared database before first message arrives
+					try
+					{
+						application.sendMapObjects();
+					}
+					catch (RemoteException e)
+					{
+						e.printStackTrace();
+					}
+				}
+			});
 		}
-		catch (RemoteException e)
+		else if (action.equals("com.androzic.plugins.action.FINALIZE"))
 		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			ingest.post(new Runnable() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						application.removeMapObjects();
+					}
+					catch (RemoteException e)
+					{
+						e.printStackTrace();
+					}
+					// Queued fixes are already saved, shared database stays open for the life of the process
+					ParserStatistics.flush(appContext);
+				}
+			});
 		}
 	}
 }
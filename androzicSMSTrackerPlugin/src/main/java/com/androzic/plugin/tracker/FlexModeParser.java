@@ -0,0 +1,92 @@
+package com.androzic.plugin.tracker;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Heuristic parser which looks for any pair of decimal coordinates in message text
+ */
+class FlexModeParser implements TrackerMessageParser
+{
+	private static final String TAG = "FlexModeParser";
+
+	//private static final Pattern coordinatesPattern = Pattern.compile("(-?\\d{1,3},\\d{5,6}[SN]?).+(-?\\d{1,3},\\d{5,6}[WE]?)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern coordinatesPattern = Pattern.compile("(-?\\d+(?:\\.|,)\\d{5,6}[SN]?)[^\\d-]+(-?\\d+(?:\\.|,)\\d{5,6}[WE]?)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern speedPattern = Pattern.compile("speed[^\\d]{0,2}(\\d{1,3}(\\.\\d{1,4})?)[^\\d]", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern imeiPattern = Pattern.compile("imei[^\\d]{0,2}(\\d+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern batteryPattern = Pattern.compile("bat(?:tery)?[^\\d]{0,2}(\\d{1,3})[^\\d]", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	@Override
+	public String getName()
+	{
+		return "FlexMode";
+	}
+
+	@Override
+	public int getMaxLength()
+	{
+		// unknown formats, allow up to four parts
+		return ParsingGuard.SMS_LENGTH * 4;
+	}
+
+	@Override
+	public boolean accepts(MessageFingerprint fingerprint)
+	{
+		return fingerprint.has(MessageFingerprint.COORDINATES);
+	}
+
+	@Override
+	public boolean parse(String text, long received, Tracker tracker)
+	{
+		Matcher m = coordinatesPattern.matcher(text);
+		if (! m.find())
+			return false;
+
+		double latitude = CoordinateDecoder.decodeLatitude(text, m.start(1), m.end(1));
+		double longitude = CoordinateDecoder.decodeLongitude(text, m.start(2), m.end(2));
+		if (Double.isNaN(latitude) || Double.isNaN(longitude))
+			return false;
+
+		tracker.latitude = latitude;
+		tracker.longitude = longitude;
+
+		m = speedPattern.matcher(text);
+		if (m.find())
+		{
+			String speed = m.group(1);
+			try
+			{
+				tracker.speed = Double.parseDouble(speed) / 3.6;
+			}
+			catch (NumberFormatException ignore)
+			{
+			}
+		}
+
+		m = imeiPattern.matcher(text);
+		if (m.find())
+		{
+			tracker.imei = m.group(1);
+		}
+
+		m = batteryPattern.matcher(text);
+		if (m.find())
+		{
+			String battery = m.group(1);
+			try
+			{
+				tracker.battery = Integer.parseInt(battery);
+			}
+			catch (NumberFormatException ignore)
+			{
+			}
+		}
+
+		Log.w(TAG, "OK " + tracker.latitude + ", " + tracker.longitude);
+		return true;
+	}
+}
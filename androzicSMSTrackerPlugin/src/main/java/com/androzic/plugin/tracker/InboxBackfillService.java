@@ -0,0 +1,186 @@
+package com.androzic.plugin.tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Imports tracker messages already stored in device SMS inbox. Inbox is streamed with
+ * a cursor in order of message ID, recognized fixes are saved in chunks, one
+ * transaction per chunk, so memory use does not depend on inbox size. ID of the last
+ * processed message is saved after every chunk and next import resumes after it,
+ * unless there are no trackers in database.
+ * <p>
+ * Progress is shown in notification and broadcast with ACTION_PROGRESS. Import is
+ * cancelled with ACTION_CANCEL, already saved chunks are kept.
+ */
+public class InboxBackfillService extends IntentService
+{
+	private static final String TAG = "InboxBackfill";
+
+	static final String ACTION_START = "com.androzic.plugin.tracker.action.BACKFILL";
+	static final String ACTION_CANCEL = "com.androzic.plugin.tracker.action.BACKFILL_CANCEL";
+	static final String ACTION_PROGRESS = "com.androzic.plugin.tracker.BACKFILL_PROGRESS";
+	/** Boolean extra of ACTION_START: import whole inbox ignoring saved checkpoint */
+	static final String EXTRA_RESTART = "restart";
+	/** Extras of ACTION_PROGRESS */
+	static final String EXTRA_PROCESSED = "processed";
+	static final String EXTRA_RECOGNIZED = "recognized";
+	static final String EXTRA_TOTAL = "total";
+	static final String EXTRA_FINISHED = "finished";
+
+	private static final Uri INBOX_URI = Uri.parse("content://sms/inbox");
+	private static final String[] INBOX_COLUMNS = new String[] { "_id", "address", "body", "date" };
+	private static final String CHECKPOINT = "backfill_last_id";
+	private static final int CHUNK_SIZE = 200;
+	private static final int NOTIFICATION_ID = -1;
+
+	private static volatile boolean cancelled = false;
+
+	public InboxBackfillService()
+	{
+		super(TAG);
+	}
+
+	/**
+	 * Starts import of inbox messages
+	 */
+	static void start(Context context, boolean restart)
+	{
+		Intent intent = new Intent(context, InboxBackfillService.class);
+		intent.setAction(ACTION_START);
+		intent.putExtra(EXTRA_RESTART, restart);
+		context.startService(intent);
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId)
+	{
+		// Cancel request is handled immediately, not after running import. It is still
+		// queued, so that service is stopped as usual when it is handled.
+		if (intent != null && ACTION_CANCEL.equals(intent.getAction()))
+			cancelled = true;
+		return super.onStartCommand(intent, flags, startId);
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent)
+	{
+		if (intent == null || ! ACTION_START.equals(intent.getAction()))
+			return;
+		cancelled = false;
+
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		long lastId = prefs.getLong(CHECKPOINT, 0);
+		// Database could be reset since last import
+		TrackerDataAccess dataAccess = TrackerDataAccess.getInstance(this);
+		Cursor trackers = dataAccess.getHeadersOfTrackers();
+		boolean empty = trackers.getCount() == 0;
+		trackers.close();
+		if (empty || intent.getBooleanExtra(EXTRA_RESTART, false))
+			lastId = 0;
+
+		Cursor cursor;
+		try
+		{
+			cursor = getContentResolver().query(INBOX_URI, INBOX_COLUMNS, "_id > ?", new String[] { String.valueOf(lastId) }, "_id ASC");
+		}
+		catch (SecurityException e)
+		{
+			Log.e(TAG, "No permission to read inbox", e);
+			return;
+		}
+		if (cursor == null)
+			return;
+
+		NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+		NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
+		builder.setSmallIcon(R.drawable.ic_stat_tracker);
+		builder.setContentTitle(getString(R.string.backfill_title));
+		builder.setOngoing(true);
+		builder.setOnlyAlertOnce(true);
+		Intent cancel = new Intent(this, InboxBackfillService.class);
+		cancel.setAction(ACTION_CANCEL);
+		builder.addAction(0, getString(android.R.string.cancel), PendingIntent.getService(this, 0, cancel, PendingIntent.FLAG_UPDATE_CURRENT));
+
+		int total = cursor.getCount();
+		int processed = 0;
+		int recognized = 0;
+		List<Tracker> chunk = new ArrayList<Tracker>(CHUNK_SIZE);
+		try
+		{
+			int idColumn = cursor.getColumnIndex("_id");
+			int addressColumn = cursor.getColumnIndex("address");
+			int bodyColumn = cursor.getColumnIndex("body");
+			int dateColumn = cursor.getColumnIndex("date");
+
+			while (! cancelled && cursor.moveToNext())
+			{
+				long id = cursor.getLong(idColumn);
+				String sender = cursor.getString(addressColumn);
+				String body = cursor.getString(bodyColumn);
+
+				long date = cursor.getLong(dateColumn);
+				processed++;
+
+				Tracker tracker = new Tracker();
+				if (sender != null && body != null && SMSReceiver.parseStoredMessage(this, sender, body, date, tracker))
+				{
+					if (tracker.time == 0)
+						tracker.time = date;
+					chunk.add(tracker);
+					recognized++;
+				}
+
+				if (processed % CHUNK_SIZE == 0 || cursor.isLast())
+				{
+					if (! chunk.isEmpty())
+						TrackerIngest.getInstance(this).importFixes(chunk);
+					chunk = new ArrayList<Tracker>(CHUNK_SIZE);
+					prefs.edit().putLong(CHECKPOINT, id).commit();
+
+					builder.setProgress(total, processed, false);
+					builder.setContentText(getString(R.string.backfill_progress, processed, total, recognized));
+					notificationManager.notify(NOTIFICATION_ID, builder.build());
+					sendProgress(processed, recognized, total, false);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Log.e(TAG, "Import interrupted");
+		}
+		finally
+		{
+			cursor.close();
+			notificationManager.cancel(NOTIFICATION_ID);
+		}
+
+		Log.i(TAG, "Imported " + recognized + " fixes from " + processed + " of " + total + " messages" + (cancelled ? " (cancelled)" : ""));
+		sendProgress(processed, recognized, total, true);
+	}
+
+	private void sendProgress(int processed, int recognized, int total, boolean finished)
+	{
+		Intent progress = new Intent(ACTION_PROGRESS);
+		progress.setPackage(getPackageName());
+		progress.putExtra(EXTRA_PROCESSED, processed);
+		progress.putExtra(EXTRA_RECOGNIZED, recognized);
+		progress.putExtra(EXTRA_TOTAL, total);
+		progress.putExtra(EXTRA_FINISHED, finished);
+		sendBroadcast(progress);
+	}
+}
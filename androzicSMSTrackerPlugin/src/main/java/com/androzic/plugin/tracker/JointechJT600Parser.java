@@ -0,0 +1,85 @@
+package com.androzic.plugin.tracker;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Jointech JT600
+ */
+class JointechJT600Parser implements TrackerMessageParser
+{
+	// jeson,09-28 12:11:02,Speed:32km/h,Battery:80%,GPS:13,STANDARD,
+	// http://maps.google.com/?q=22.549737N,114.076685E
+	// 3110701703,09-28 12:11:02,Speed:0km/h,Charging,Base Station,STANDARD,Cell ID:4195,LAC:230
+	// 3110701703,04-24 22:44:33,Speed:0km/h,Battery:90%,GPS:8,STANDARD,
+	// http://maps.google.com/?q=60.010245N,30.288323E
+	// ALM,SOS,3110701703,09-28 12:11:02,Speed:32km/h,Battery:80%,GPS:13,STANDARD,http://maps.google.com/?q=22.549737N,114.076685E
+	// http://fiddle.re/yv1h6
+	private static final Pattern pattern = Pattern.compile("(?:ALM,)?(?:(.*),)?([^,]+),([\\d\\-:\\s]+),(?:Speed:(\\d+)km/h,)?(?:Battery:(\\d+)%|Charging),[^,]+,[^,]+,(?:\\r?\\n)?http://maps\\.google\\.com/\\?q=([^,]+),(.+)");
+
+	@Override
+	public String getName()
+	{
+		return "JointechJT600";
+	}
+
+	@Override
+	public int getMaxLength()
+	{
+		// reports with alarm prefix do not fit single SMS
+		return ParsingGuard.SMS_LENGTH * 2;
+	}
+
+	@Override
+	public boolean accepts(MessageFingerprint fingerprint)
+	{
+		return fingerprint.has(MessageFingerprint.GOOGLE_QUERY);
+	}
+
+	@Override
+	public boolean parse(String text, long received, Tracker tracker)
+	{
+		Matcher m = pattern.matcher(text);
+		if (! m.matches())
+			return false;
+
+		double latitude = CoordinateDecoder.decodeLatitude(text, m.start(6), m.end(6));
+		double longitude = CoordinateDecoder.decodeLongitude(text, m.start(7), m.end(7));
+		if (Double.isNaN(latitude) || Double.isNaN(longitude))
+			return false;
+
+		tracker.latitude = latitude;
+		tracker.longitude = longitude;
+
+		try
+		{
+			String speed = m.group(4);
+			if (speed != null)
+				tracker.speed = Double.parseDouble(speed) / 3.6;
+		}
+		catch (NumberFormatException ignore)
+		{
+		}
+
+		tracker.time = TrackerTimeDecoder.decodeMonthDayTime(text, m.start(3), m.end(3), TrackerTimeDecoder.deviceZone(received), received);
+
+		String battery = m.group(5);
+		try
+		{
+			tracker.battery = Integer.parseInt(battery);
+		}
+		catch (NumberFormatException ignore)
+		{
+		}
+
+		tracker.imei = m.group(2);
+
+		String message = m.group(1);
+		if (! "".equals(message))
+			tracker.message = message;
+
+		return true;
+	}
+}
@@ -0,0 +1,59 @@
+package com.androzic.plugin.tracker;
+
+/**
+ * Helpers for scanning message text for field markers
+ */
+final class Markers
+{
+	private Markers()
+	{
+	}
+
+	/**
+	 * Case insensitive search of ASCII marker
+	 * 
+	 * @return position of marker or -1 if it is not found
+	 */
+	static int indexOf(String text, String marker, int from)
+	{
+		int last = text.length() - marker.length();
+		char first = Character.toLowerCase(marker.charAt(0));
+		char firstUpper = Character.toUpperCase(first);
+		for (int i = from; i <= last; i++)
+		{
+			char c = text.charAt(i);
+			if ((c == first || c == firstUpper) && text.regionMatches(true, i + 1, marker, 1, marker.length() - 1))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tells if marker at given position starts a word, so "lat:" is not found inside "flat:"
+	 */
+	static boolean isWordStart(String text, int pos)
+	{
+		return pos == 0 || ! Character.isLetterOrDigit(text.charAt(pos - 1));
+	}
+
+	static int skipSpaces(String text, int pos)
+	{
+		int length = text.length();
+		while (pos < length && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+	static int skipToken(String text, int pos)
+	{
+		int length = text.length();
+		while (pos < length && ! Character.isWhitespace(text.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+	static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+}
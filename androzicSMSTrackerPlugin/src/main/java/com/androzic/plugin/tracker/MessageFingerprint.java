@@ -0,0 +1,156 @@
+package com.androzic.plugin.tracker;
+
+/**
+ * Set of cheap signals found in message text. It is collected in one pass over the text
+ * and lets registry skip parsers which definitely can not recognize the message.
+ * Markers are matched case insensitively.
+ */
+final class MessageFingerprint
+{
+	/** Text starts with "ALM," */
+	static final int ALARM = 1;
+	/** ",Speed:" */
+	static final int SPEED_FIELD = 1 << 1;
+	/** "km/h" */
+	static final int KMH = 1 << 2;
+	/** "maps.google.com/?q=" */
+	static final int GOOGLE_QUERY = 1 << 3;
+	/** "lat:" */
+	static final int LAT = 1 << 4;
+	/** "long:" */
+	static final int LONG = 1 << 5;
+	/** "lon:" or "long:" */
+	static final int LON = 1 << 6;
+	/** "signal:" */
+	static final int SIGNAL = 1 << 7;
+	/** "imei:" */
+	static final int IMEI = 1 << 8;
+	/** "T:" */
+	static final int TIME = 1 << 9;
+	/** "bat:" */
+	static final int BAT = 1 << 10;
+	/** "speed:" */
+	static final int SPEED = 1 << 11;
+	/** At least two decimal numbers with five or more fraction digits */
+	static final int COORDINATES = 1 << 12;
+
+	private static final int COORDINATE_FRACTION = 5;
+
+	final int flags;
+	private final String text;
+
+	private MessageFingerprint(int flags, String text)
+	{
+		this.flags = flags;
+		this.text = text;
+	}
+
+	/**
+	 * Returns true if all requested signals are present
+	 */
+	boolean has(int mask)
+	{
+		return (flags & mask) == mask;
+	}
+
+	/**
+	 * Returns true if at least one of requested signals is present
+	 */
+	boolean hasAny(int mask)
+	{
+		return (flags & mask) != 0;
+	}
+
+	/**
+	 * Returns true if text contains marker which has no signal of its own
+	 */
+	boolean contains(String marker)
+	{
+		return Markers.indexOf(text, marker, 0) >= 0;
+	}
+
+	static MessageFingerprint scan(String text)
+	{
+		int flags = 0;
+		int length = text.length();
+		int decimals = 0;
+		// -1 - not in number, 0 - integer part, > 0 - fraction digits + 1
+		int number = -1;
+
+		if (text.startsWith("ALM,"))
+			flags |= ALARM;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = text.charAt(i);
+
+			if (c >= '0' && c <= '9')
+			{
+				if (number < 0)
+					number = 0;
+				else if (number > 0 && ++number == COORDINATE_FRACTION + 1)
+					decimals++;
+				continue;
+			}
+			// In "1.2.123456" fraction digits of one number are integer part of the next
+			if ((c == '.' || c == ',') && (number == 0 || number > 1))
+				number = 1;
+			else
+				number = -1;
+
+			switch (c)
+			{
+				case 'l':
+				case 'L':
+					if (text.regionMatches(true, i, "lat:", 0, 4))
+						flags |= LAT;
+					else if (text.regionMatches(true, i, "long:", 0, 5))
+						flags |= LONG | LON;
+					else if (text.regionMatches(true, i, "lon:", 0, 4))
+						flags |= LON;
+					break;
+				case 's':
+				case 'S':
+					if (text.regionMatches(true, i, "signal:", 0, 7))
+						flags |= SIGNAL;
+					else if (text.regionMatches(true, i, "speed:", 0, 6))
+						flags |= SPEED;
+					break;
+				case 'i':
+				case 'I':
+					if (text.regionMatches(true, i, "imei:", 0, 5))
+						flags |= IMEI;
+					break;
+				case 't':
+				case 'T':
+					if (i + 1 < length && text.charAt(i + 1) == ':')
+						flags |= TIME;
+					break;
+				case 'b':
+				case 'B':
+					if (text.regionMatches(true, i, "bat:", 0, 4))
+						flags |= BAT;
+					break;
+				case 'k':
+				case 'K':
+					if (text.regionMatches(true, i, "km/h", 0, 4))
+						flags |= KMH;
+					break;
+				case 'm':
+				case 'M':
+					if (text.regionMatches(true, i, "maps.google.com/?q=", 0, 19))
+						flags |= GOOGLE_QUERY;
+					break;
+				case ',':
+					if (text.regionMatches(true, i, ",speed:", 0, 7))
+						flags |= SPEED_FIELD;
+					break;
+			}
+		}
+
+		if (decimals >= 2)
+			flags |= COORDINATES;
+
+		return new MessageFingerprint(flags, text);
+	}
+}
@@ -0,0 +1,270 @@
+package com.androzic.plugin.tracker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Append-only journal of received tracker messages. Message is appended and synced to
+ * storage before SMS broadcast returns, so it survives process death even if SMS was
+ * concealed. Writer thread advances committed checkpoint after fixes are saved to
+ * database, entries after checkpoint are replayed on next start. Journal is truncated
+ * when all its entries are committed.
+ * <p>
+ * Record: int length, payload (long seq, long time, UTF sender, UTF body), int CRC32 of
+ * payload. Torn record at the end of file is ignored.
+ */
+final class MessageJournal
+{
+	private static final String TAG = "MessageJournal";
+	private static final String JOURNAL = "messages.journal";
+	private static final String CHECKPOINT = "messages.checkpoint";
+	private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+	static final class Entry
+	{
+		final long seq;
+		final long time;
+		final String sender;
+		final String body;
+
+		Entry(long seq, long time, String sender, String body)
+		{
+			this.seq = seq;
+			this.time = time;
+			this.sender = sender;
+			this.body = body;
+		}
+	}
+
+	private static MessageJournal instance;
+
+	private final File journal;
+	private final File checkpoint;
+	private long lastSeq;
+	private long committedSeq;
+	// length of intact part of journal found by last read
+	private long validLength;
+
+	private MessageJournal(Context context)
+	{
+		File dir = context.getFilesDir();
+		journal = new File(dir, JOURNAL);
+		checkpoint = new File(dir, CHECKPOINT);
+		committedSeq = readCheckpoint();
+		lastSeq = committedSeq;
+		List<Entry> entries = read();
+		if (! entries.isEmpty())
+			lastSeq = Math.max(lastSeq, entries.get(entries.size() - 1).seq);
+		// Cut torn record so that new records are appended after intact ones
+		if (journal.length() > validLength)
+			truncate(validLength);
+	}
+
+	static synchronized MessageJournal getInstance(Context context)
+	{
+		if (instance == null)
+			instance = new MessageJournal(context);
+		return instance;
+	}
+
+	/**
+	 * Appends message to journal and syncs it to storage
+	 *
+	 * @return sequence number of appended message or 0 if it could not be written
+	 */
+	synchronized long append(long time, String sender, String body)
+	{
+		long seq = lastSeq + 1;
+		try
+		{
+			ByteArrayOutputStream payload = new ByteArrayOutputStream(body.length() + 64);
+			DataOutputStream out = new DataOutputStream(payload);
+			out.writeLong(seq);
+			out.writeLong(time);
+			out.writeUTF(sender);
+			out.writeUTF(body);
+			out.flush();
+			byte[] bytes = payload.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+
+			ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 8);
+			out = new DataOutputStream(record);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeInt((int) crc.getValue());
+			out.flush();
+
+			FileOutputStream stream = new FileOutputStream(journal, true);
+			try
+			{
+				stream.write(record.toByteArray());
+				stream.getFD().sync();
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Failed to append message", e);
+			return 0;
+		}
+		lastSeq = seq;
+		return seq;
+	}
+
+	/**
+	 * Marks all messages up to given sequence number as saved to database
+	 */
+	synchronized void commit(long seq)
+	{
+		if (seq <= committedSeq)
+			return;
+		committedSeq = seq;
+		try
+		{
+			File temp = new File(checkpoint.getPath() + ".tmp");
+			FileOutputStream stream = new FileOutputStream(temp);
+			try
+			{
+				new DataOutputStream(stream).writeLong(seq);
+				stream.getFD().sync();
+			}
+			finally
+			{
+				stream.close();
+			}
+			if (! temp.renameTo(checkpoint))
+				throw new IOException("Failed to rename " + temp);
+			if (committedSeq >= lastSeq && journal.length() > 0)
+				truncate(0);
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Failed to commit " + seq, e);
+		}
+	}
+
+	/**
+	 * Returns messages which were not committed
+	 */
+	synchronized List<Entry> getUncommitted()
+	{
+		List<Entry> entries = read();
+		List<Entry> uncommitted = new ArrayList<Entry>();
+		for (Entry entry : entries)
+		{
+			if (entry.seq > committedSeq)
+				uncommitted.add(entry);
+		}
+		return uncommitted;
+	}
+
+	/**
+	 * Returns all intact messages in journal
+	 */
+	synchronized List<Entry> read()
+	{
+		List<Entry> entries = new ArrayList<Entry>();
+		validLength = 0;
+		if (! journal.exists())
+			return entries;
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+			try
+			{
+				CRC32 crc = new CRC32();
+				while (true)
+				{
+					int length = in.readInt();
+					if (length <= 0 || length > MAX_RECORD_LENGTH)
+						break;
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					int checksum = in.readInt();
+					crc.reset();
+					crc.update(bytes);
+					if ((int) crc.getValue() != checksum)
+						break;
+					DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+					entries.add(new Entry(payload.readLong(), payload.readLong(), payload.readUTF(), payload.readUTF()));
+					validLength += length + 8;
+				}
+			}
+			catch (EOFException e)
+			{
+				// torn or complete end of journal
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Failed to read journal", e);
+		}
+		return entries;
+	}
+
+	private void truncate(long length)
+	{
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile(journal, "rw");
+			try
+			{
+				file.setLength(length);
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Failed to truncate journal", e);
+		}
+	}
+
+	private long readCheckpoint()
+	{
+		if (! checkpoint.exists())
+			return 0;
+		try
+		{
+			DataInputStream in = new DataInputStream(new FileInputStream(checkpoint));
+			try
+			{
+				return in.readLong();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Failed to read checkpoint", e);
+			return 0;
+		}
+	}
+}
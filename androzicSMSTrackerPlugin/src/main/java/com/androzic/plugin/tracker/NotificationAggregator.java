@@ -0,0 +1,210 @@
+package com.androzic.plugin.tracker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Groups tracker update notifications. First update is notified at once and opens a
+ * window, trackers updated within that window are shown in one inbox style summary
+ * when it closes. Sound and vibration are played at most once per ALERT_INTERVAL.
+ * Alarm messages are always notified separately, immediately and with sound.
+ * <p>
+ * Must be used from the thread of given handler.
+ */
+final class NotificationAggregator
+{
+	/** Time to collect updates into summary */
+	static final long WINDOW = 10000;
+	/** Minimum time between notification sounds */
+	static final long ALERT_INTERVAL = 60000;
+
+	// Tracker notifications use tracker ID, inbox import uses -1
+	private static final int SUMMARY_ID = -2;
+	// Alarm notifications use tracker ID above this offset, so that routine update does not replace alarm
+	private static final int ALARM_ID_OFFSET = 1 << 30;
+	// Summary shows only first lines, the rest is counted
+	private static final int SUMMARY_LINES = 7;
+
+	private final Context context;
+	private final Handler handler;
+	private final NotificationManager notificationManager;
+
+	// Latest update of every tracker within current window
+	private final Map<String, Tracker> updated = new LinkedHashMap<String, Tracker>();
+	private Tracker first;
+	private int updates = 0;
+	private long lastAlert = -ALERT_INTERVAL;
+
+	private final Runnable closeWindow = new Runnable() {
+		@Override
+		public void run()
+		{
+			close();
+		}
+	};
+
+	NotificationAggregator(Context context, Handler handler)
+	{
+		this.context = context;
+		this.handler = handler;
+		notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+	}
+
+	/**
+	 * Notifies about routine tracker update
+	 */
+	void add(Tracker tracker)
+	{
+		updated.remove(tracker.sender);
+		updated.put(tracker.sender, tracker);
+		updates++;
+		if (first == null)
+		{
+			first = tracker;
+			notificationManager.notify((int) tracker._id, build(tracker, (int) tracker._id, alert()));
+			handler.postDelayed(closeWindow, WINDOW);
+		}
+	}
+
+	/**
+	 * Notifies about alarm message at once
+	 */
+	void alarm(Tracker tracker)
+	{
+		lastAlert = SystemClock.elapsedRealtime();
+		int id = ALARM_ID_OFFSET + (int) tracker._id;
+		NotificationCompat.Builder builder = builder(tracker, id, true);
+		builder.setPriority(NotificationCompat.PRIORITY_HIGH);
+		notificationManager.notify(id, builder.build());
+	}
+
+	private void close()
+	{
+		if (updates > 1)
+		{
+			if (updated.size() == 1)
+			{
+				// Only first tracker was updated again, show its latest state
+				Tracker tracker = updated.values().iterator().next();
+				notificationManager.notify((int) tracker._id, build(tracker, (int) tracker._id, false));
+			}
+			else
+			{
+				notificationManager.cancel((int) first._id);
+				notificationManager.notify(SUMMARY_ID, summary(alert()));
+			}
+		}
+		updated.clear();
+		first = null;
+		updates = 0;
+	}
+
+	private boolean alert()
+	{
+		long now = SystemClock.elapsedRealtime();
+		if (now - lastAlert < ALERT_INTERVAL)
+			return false;
+		lastAlert = now;
+		return true;
+	}
+
+	private Notification build(Tracker tracker, int id, boolean alert)
+	{
+		return builder(tracker, id, alert).build();
+	}
+
+	/**
+	 * @param id notification ID, also used as request code of its intent
+	 */
+	private NotificationCompat.Builder builder(Tracker tracker, int id, boolean alert)
+	{
+		Intent i = new Intent("com.androzic.COORDINATES_RECEIVED");
+		i.putExtra("title", tracker.message != null ? tracker.message : tracker.name);
+		i.putExtra("sender", tracker.name);
+		i.putExtra("origin", context.getPackageName());
+		i.putExtra("lat", tracker.latitude);
+		i.putExtra("lon", tracker.longitude);
+
+		String msg = context.getString(R.string.notif_text, tracker.name);
+		NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+		builder.setContentTitle(context.getString(R.string.app_name));
+		builder.setContentText(line(tracker));
+		PendingIntent contentIntent = PendingIntent.getBroadcast(context, id, i, PendingIntent.FLAG_ONE_SHOT);
+		builder.setContentIntent(contentIntent);
+		builder.setSmallIcon(R.drawable.ic_stat_tracker);
+		builder.setTicker(msg);
+		builder.setWhen(tracker.time);
+		builder.setDefaults(defaults(alert));
+		builder.setAutoCancel(true);
+		return builder;
+	}
+
+	private Notification summary(boolean alert)
+	{
+		String title = context.getResources().getQuantityString(R.plurals.notif_summary_title, updated.size(), updated.size());
+		NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+		style.setBigContentTitle(title);
+		StringBuilder names = new StringBuilder();
+		int lines = 0;
+		long when = 0;
+		for (Tracker tracker : updated.values())
+		{
+			if (lines++ < SUMMARY_LINES)
+				style.addLine(line(tracker));
+			if (names.length() > 0)
+				names.append(", ");
+			names.append(tracker.name);
+			when = Math.max(when, tracker.time);
+		}
+		if (lines > SUMMARY_LINES)
+			style.setSummaryText(context.getString(R.string.notif_summary_more, lines - SUMMARY_LINES));
+
+		Intent i = new Intent(context, TrackerList.class);
+		i.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+		NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+		builder.setContentTitle(title);
+		builder.setContentText(names);
+		builder.setContentIntent(PendingIntent.getActivity(context, 0, i, PendingIntent.FLAG_UPDATE_CURRENT));
+		builder.setSmallIcon(R.drawable.ic_stat_tracker);
+		builder.setTicker(title);
+		builder.setWhen(when);
+		builder.setNumber(updated.size());
+		builder.setStyle(style);
+		builder.setDefaults(defaults(alert));
+		builder.setAutoCancel(true);
+		return builder.build();
+	}
+
+	private String line(Tracker tracker)
+	{
+		if (tracker.message != null)
+			return tracker.name + ": " + tracker.message;
+		else
+			return context.getString(R.string.notif_text, tracker.name);
+	}
+
+	private int defaults(boolean alert)
+	{
+		if (! alert)
+			return Notification.DEFAULT_LIGHTS;
+		int defaults = Notification.DEFAULT_LIGHTS | Notification.DEFAULT_SOUND;
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		boolean vibrate = prefs.getBoolean(context.getString(R.string.pref_tracker_vibrate), context.getResources().getBoolean(R.bool.def_vibrate));
+		if (vibrate)
+			defaults |= Notification.DEFAULT_VIBRATE;
+		return defaults;
+	}
+}
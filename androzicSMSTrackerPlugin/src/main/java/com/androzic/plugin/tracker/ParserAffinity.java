@@ -0,0 +1,123 @@
+package com.androzic.plugin.tracker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Remembers which parser recognized last message from each sender. Tracker SIM always
+ * sends messages in the same format, so remembered parser is tried first. Cache is
+ * bounded and persisted in database so it survives process death. Database is accessed
+ * only on ingest writer thread, never on the thread which parses messages.
+ * <p>
+ * Lookups are done by parser lanes without locking. When cache is full the sender whose
+ * parser was remembered longest ago is forgotten, it is remembered again with its next
+ * message.
+ */
+final class ParserAffinity
+{
+	private static final String TAG = "ParserAffinity";
+
+	static final int CAPACITY = 512;
+
+	// Parser name by sender
+	private static final ConcurrentMap<String, String> cache = new ConcurrentHashMap<String, String>();
+	// Senders in order of remembering, guarded by class lock
+	@SuppressWarnings("serial")
+	private static final Map<String, Boolean> order = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+		{
+			if (size() <= CAPACITY)
+				return false;
+			cache.remove(eldest.getKey());
+			return true;
+		}
+	};
+
+	private static volatile boolean loading = false;
+
+	private ParserAffinity()
+	{
+	}
+
+	/**
+	 * Starts loading of persisted cache on ingest writer thread
+	 */
+	static synchronized void load(Context context)
+	{
+		if (loading)
+			return;
+		loading = true;
+
+		final Context appContext = context.getApplicationContext();
+		TrackerIngest.getInstance(appContext).post(new Runnable() {
+			@Override
+			public void run()
+			{
+				Map<String, String> saved;
+				try
+				{
+					saved = TrackerDataAccess.getInstance(appContext).getSenderParsers(CAPACITY);
+				}
+				catch (Exception e)
+				{
+					Log.e(TAG, "Failed to load parser affinity", e);
+					return;
+				}
+				synchronized (ParserAffinity.class)
+				{
+					// Parsers remembered since start are newer than saved ones
+					for (Map.Entry<String, String> entry : saved.entrySet())
+					{
+						if (cache.putIfAbsent(entry.getKey(), entry.getValue()) == null)
+							order.put(entry.getKey(), Boolean.TRUE);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns parser which recognized last message from sender or null if it is not known
+	 * or cache is not loaded yet
+	 */
+	static TrackerMessageParser get(Context context, String sender)
+	{
+		if (sender == null || "".equals(sender))
+			return null;
+		if (! loading)
+			load(context);
+		String name = cache.get(sender);
+		return name != null ? TrackerMessageParsers.get(name) : null;
+	}
+
+	/**
+	 * Remembers parser which recognized message from sender, database is updated on ingest
+	 * writer thread and only if parser has changed
+	 */
+	static synchronized void put(Context context, String sender, TrackerMessageParser parser)
+	{
+		if (sender == null || "".equals(sender))
+			return;
+		load(context);
+		final String name = parser.getName();
+		if (name.equals(cache.put(sender, name)))
+			return;
+		order.put(sender, Boolean.TRUE);
+
+		final Context appContext = context.getApplicationContext();
+		final String key = sender;
+		TrackerIngest.getInstance(appContext).post(new Runnable() {
+			@Override
+			public void run()
+			{
+				TrackerDataAccess.getInstance(appContext).saveSenderParser(key, name);
+			}
+		});
+	}
+}
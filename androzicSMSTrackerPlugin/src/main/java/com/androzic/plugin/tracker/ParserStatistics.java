@@ -0,0 +1,346 @@
+package com.androzic.plugin.tracker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Counts attempts, successes, failures and time spent by each parser and the outcome of
+ * every message. Counters are kept in memory and periodically saved to parser_stats
+ * table, where they can be viewed with database manager. Latency percentiles are
+ * computed from logarithmic histogram of microseconds.
+ * <p>
+ * Parser lanes record concurrently, so every counter is guarded by its own entry and
+ * the class lock guards only flush state.
+ */
+final class ParserStatistics
+{
+	private static final String TAG = "ParserStatistics";
+
+	/** Messages given to parsers */
+	static final String MESSAGES = "(messages)";
+	/** Messages not recognized by strict parsers and given to flex mode */
+	static final String FALLTHROUGH = "(flex fallthrough)";
+	/** Messages not recognized by any parser */
+	static final String REJECTED = "(rejected)";
+	/** Parser runs skipped because message was too long */
+	static final String OVERSIZED = "(oversized)";
+	/** Recognized messages dropped as repeated delivery */
+	static final String DUPLICATES = "(duplicates)";
+	/** Saved fixes which map update and notification were merged with other fixes of the same tracker */
+	static final String SHED = "(shed)";
+	/** Times ingest switched to storm mode */
+	static final String STORMS = "(storms)";
+	/** Maximum number of fixes waiting to be saved, kept in maximum column */
+	static final String MAX_QUEUE_DEPTH = "(max queue depth)";
+
+	/**
+	 * Histogram bucket i holds durations from 2^i to 2^(i+1) microseconds, last bucket holds everything above
+	 */
+	static final int BUCKETS = 24;
+
+	private static final long FLUSH_INTERVAL = 30000;
+
+	static final class Entry
+	{
+		final String name;
+		long attempts;
+		long successes;
+		long failures;
+		long nanos;
+		long maxNanos;
+		/** Maximum of gauge, not a duration */
+		long maximum;
+		final long[] histogram = new long[BUCKETS];
+
+		Entry(String name)
+		{
+			this.name = name;
+		}
+
+		Entry(Entry other)
+		{
+			this(other.name);
+			synchronized (other)
+			{
+				add(other);
+			}
+		}
+
+		void add(Entry other)
+		{
+			attempts += other.attempts;
+			successes += other.successes;
+			failures += other.failures;
+			nanos += other.nanos;
+			maxNanos = Math.max(maxNanos, other.maxNanos);
+			maximum = Math.max(maximum, other.maximum);
+			for (int i = 0; i < BUCKETS; i++)
+				histogram[i] += other.histogram[i];
+		}
+
+		/**
+		 * Returns upper bound of requested percentile in microseconds
+		 * 
+		 * @param percent percentile, 0-100
+		 */
+		long percentile(double percent)
+		{
+			long total = 0;
+			for (long count : histogram)
+				total += count;
+			if (total == 0)
+				return 0;
+			long threshold = (long) Math.ceil(total * percent / 100);
+			long count = 0;
+			for (int i = 0; i < BUCKETS; i++)
+			{
+				count += histogram[i];
+				if (count >= threshold)
+					return 1L << (i + 1);
+			}
+			return 1L << BUCKETS;
+		}
+
+		String histogramToString()
+		{
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < BUCKETS; i++)
+			{
+				if (i > 0)
+					builder.append(',');
+				builder.append(histogram[i]);
+			}
+			return builder.toString();
+		}
+
+		void histogramFromString(String value)
+		{
+			if (value == null)
+				return;
+			String[] counts = value.split(",");
+			for (int i = 0; i < counts.length && i < BUCKETS; i++)
+			{
+				try
+				{
+					histogram[i] = Long.parseLong(counts[i]);
+				}
+				catch (NumberFormatException ignore)
+				{
+				}
+			}
+		}
+	}
+
+	private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private static boolean loaded = false;
+	private static volatile boolean dirty = false;
+	private static boolean flushPosted = false;
+	private static long lastFlush = 0;
+	private static long reportedOversized = 0;
+
+	private ParserStatistics()
+	{
+	}
+
+	/**
+	 * Records parser run
+	 */
+	static void record(String parser, boolean success, long nanos)
+	{
+		long micros = nanos / 1000;
+		int bucket = micros > 0 ? 63 - Long.numberOfLeadingZeros(micros) : 0;
+		Entry entry = entry(parser);
+		synchronized (entry)
+		{
+			entry.attempts++;
+			if (success)
+				entry.successes++;
+			else
+				entry.failures++;
+			entry.nanos += nanos;
+			if (nanos > entry.maxNanos)
+				entry.maxNanos = nanos;
+			entry.histogram[Math.min(bucket, BUCKETS - 1)]++;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Increments message counter (MESSAGES, FALLTHROUGH, REJECTED, DUPLICATES, SHED, STORMS)
+	 */
+	static void count(String counter)
+	{
+		count(counter, 1);
+	}
+
+	/**
+	 * Adds to message counter
+	 */
+	static void count(String counter, long n)
+	{
+		Entry entry = entry(counter);
+		synchronized (entry)
+		{
+			entry.attempts += n;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Updates maximum of gauge (MAX_QUEUE_DEPTH)
+	 */
+	static void max(String gauge, long value)
+	{
+		Entry entry = entry(gauge);
+		synchronized (entry)
+		{
+			if (value <= entry.maximum)
+				return;
+			entry.maximum = value;
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Schedules saving of counters on ingest thread if they were not saved for a while
+	 */
+	static void flushIfDue(Context context)
+	{
+		synchronized (ParserStatistics.class)
+		{
+			if (flushPosted || ! dirty || SystemClock.elapsedRealtime() - lastFlush < FLUSH_INTERVAL)
+				return;
+			flushPosted = true;
+		}
+		post(context);
+	}
+
+	/**
+	 * Schedules saving of counters on ingest thread
+	 */
+	static void post(final Context context)
+	{
+		TrackerIngest.getInstance(context).post(new Runnable() {
+			@Override
+			public void run()
+			{
+				flush(context);
+			}
+		});
+	}
+
+	/**
+	 * Saves counters to database, must be called on ingest thread. Database is accessed
+	 * outside of the lock so that parsers are not blocked by I/O.
+	 */
+	static void flush(Context context)
+	{
+		TrackerDataAccess dataAccess = TrackerDataAccess.getInstance(context);
+		try
+		{
+			boolean load;
+			synchronized (ParserStatistics.class)
+			{
+				load = ! loaded;
+			}
+			if (load)
+			{
+				List<Entry> saved = dataAccess.getParserStatistics();
+				synchronized (ParserStatistics.class)
+				{
+					// Counters could be reset meanwhile
+					if (! loaded)
+					{
+						for (Entry entry : saved)
+						{
+							Entry current = entry(entry.name);
+							synchronized (current)
+							{
+								current.add(entry);
+							}
+						}
+						loaded = true;
+					}
+				}
+			}
+
+			List<Entry> snapshot = new ArrayList<Entry>();
+			synchronized (ParserStatistics.class)
+			{
+				long oversized = ParsingGuard.getOversizedCount();
+				count(OVERSIZED, oversized - reportedOversized);
+				reportedOversized = oversized;
+
+				// Cleared before copying so that concurrent records mark counters dirty again
+				dirty = false;
+				for (Entry entry : entries.values())
+					snapshot.add(new Entry(entry));
+				flushPosted = false;
+				lastFlush = SystemClock.elapsedRealtime();
+			}
+			dataAccess.saveParserStatistics(snapshot);
+		}
+		catch (Exception e)
+		{
+			Log.e(TAG, "Failed to save statistics", e);
+			synchronized (ParserStatistics.class)
+			{
+				flushPosted = false;
+			}
+		}
+	}
+
+	/**
+	 * Clears all counters in memory and in database
+	 */
+	static void reset(Context context)
+	{
+		synchronized (ParserStatistics.class)
+		{
+			entries.clear();
+			reportedOversized = ParsingGuard.getOversizedCount();
+			dirty = false;
+			loaded = true;
+		}
+
+		final TrackerDataAccess dataAccess = TrackerDataAccess.getInstance(context);
+		TrackerIngest.getInstance(context).post(new Runnable() {
+			@Override
+			public void run()
+			{
+				dataAccess.clearParserStatistics();
+			}
+		});
+	}
+
+	/**
+	 * Returns current counters, for diagnostics only
+	 */
+	static Collection<Entry> getEntries()
+	{
+		List<Entry> snapshot = new ArrayList<Entry>();
+		for (Entry entry : entries.values())
+			snapshot.add(new Entry(entry));
+		return snapshot;
+	}
+
+	private static Entry entry(String name)
+	{
+		Entry entry = entries.get(name);
+		if (entry == null)
+		{
+			Entry created = new Entry(name);
+			entry = entries.putIfAbsent(name, created);
+			if (entry == null)
+				entry = created;
+		}
+		return entry;
+	}
+}
@@ -0,0 +1,48 @@
+package com.androzic.plugin.tracker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Bounds the work parsers may do on a message: message longer than parser limit is not
+ * given to parser at all, so long spam can not stall SMS broadcast. Regular expressions
+ * are not interrupted (Android matches them in native code), their cost is bounded only
+ * by this length cap.
+ */
+final class ParsingGuard
+{
+	/**
+	 * Length of single SMS (GSM 7-bit alphabet)
+	 */
+	static final int SMS_LENGTH = 160;
+
+	private static final AtomicLong oversized = new AtomicLong();
+
+	private ParsingGuard()
+	{
+	}
+
+	/**
+	 * Runs parser within its length limit
+	 * 
+	 * @return true if message was recognized
+	 */
+	static boolean parse(TrackerMessageParser parser, String text, long received, Tracker tracker)
+	{
+		if (text.length() > parser.getMaxLength())
+		{
+			oversized.incrementAndGet();
+			return false;
+		}
+		return parser.parse(text, received, tracker);
+	}
+
+	/**
+	 * Returns number of parser runs skipped because message was too long
+	 */
+	static long getOversizedCount()
+	{
+		return oversized.get();
+	}
+}
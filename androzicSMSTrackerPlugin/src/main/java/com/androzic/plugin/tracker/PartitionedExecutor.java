@@ -0,0 +1,75 @@
+package com.androzic.plugin.tracker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+
+/**
+ * Executes tasks on a small pool of serial lanes. Tasks with the same key always run on
+ * the same lane in order of submission, tasks with different keys may run concurrently.
+ */
+final class PartitionedExecutor
+{
+	private final ExecutorService[] lanes;
+
+	PartitionedExecutor(final String name, int parallelism)
+	{
+		lanes = new ExecutorService[Math.max(1, parallelism)];
+		for (int i = 0; i < lanes.length; i++)
+		{
+			final String laneName = name + "-" + i;
+			lanes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable task)
+				{
+					Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run()
+						{
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							task.run();
+						}
+					}, laneName);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns number of lanes suitable for this device
+	 */
+	static int defaultParallelism()
+	{
+		return Math.min(4, Runtime.getRuntime().availableProcessors());
+	}
+
+	int getParallelism()
+	{
+		return lanes.length;
+	}
+
+	/**
+	 * Runs task on the lane of given key, null key is allowed
+	 */
+	void execute(String key, Runnable task)
+	{
+		int hash = key != null ? key.hashCode() : 0;
+		lanes[(hash & 0x7fffffff) % lanes.length].execute(task);
+	}
+
+	/**
+	 * Stops accepting tasks and waits for submitted tasks to complete
+	 */
+	void shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		for (ExecutorService lane : lanes)
+			lane.shutdown();
+		for (ExecutorService lane : lanes)
+			lane.awaitTermination(timeout, unit);
+	}
+}
@@ -61,6 +61,8 @@ public class Preferences extends PreferenceActivity implements OnSharedPreferenc
     {
         Preference pref = findPreference(key);
        	setPrefSummary(pref);
+       	if (getString(R.string.pref_tracker_device_formats).equals(key))
+       		DeviceFormats.load(this);
     }
 
     private void setPrefSummary(Preference pref)
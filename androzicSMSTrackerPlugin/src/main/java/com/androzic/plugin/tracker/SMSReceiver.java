@@ -20,42 +20,22 @@
 
 package com.androzic.plugin.tracker;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import android.annotation.SuppressLint;
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Bundle;
-import android.os.RemoteException;
 import android.preference.PreferenceManager;
-import android.support.v4.app.NotificationCompat;
 import android.telephony.SmsMessage;
 import android.util.Log;
 
 import com.androzic.data.Tracker;
-import com.androzic.util.CoordinateParser;
 
 public class SMSReceiver extends BroadcastReceiver
 {
 	private static final String TAG = "SMSReceiver";
 
-	@SuppressLint("SimpleDateFormat")
-	private static final SimpleDateFormat JointechDateFormatter = new SimpleDateFormat("MM-dd HH:mm:ss");
-	@SuppressLint("SimpleDateFormat")
-	private static final SimpleDateFormat XexunDateFormatter = new SimpleDateFormat("dd/MM/yy HH:mm");
-	@SuppressLint("SimpleDateFormat")
-	private static final SimpleDateFormat TK102Clone1DateFormatter = new SimpleDateFormat("yy/MM/dd HH:mm");
-	
-	private static final Pattern realNumber = Pattern.compile("\\d+\\.\\d+");
-
 	@Override
 	public void onReceive(Context context, Intent intent)
 	{
@@ -82,376 +62,98 @@ public class SMSReceiver extends BroadcastReceiver
 		}
 		
 		String text = messageBuilder.toString();
-		boolean flexMode = prefs.getBoolean(context.getString(R.string.pref_tracker_use_flex_mode), context.getResources().getBoolean(R.bool.def_flex_mode));
 		
 		Log.i(TAG, "SMS: " + text);
-		Tracker tracker = new Tracker();
-		if (! parseXexunTK102(text, tracker) &&
-			! parseJointechJT600(text, tracker) &&
-			! parseTK102Clone1(text, tracker) &&
-			! (parseFlexMode(text, tracker) && flexMode) )
+		final boolean concealsms = prefs.getBoolean(context.getString(R.string.pref_tracker_concealsms), context.getResources().getBoolean(R.bool.def_concealsms));
+		TrackerIngest ingest = TrackerIngest.getInstance(context);
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+		{
+			// Message is parsed, journaled and queued on the lane of its sender, broadcast
+			// is held until it is known whether to conceal it
+			final PendingResult result = goAsync();
+			ingest.receive(Sender, text, System.currentTimeMillis(), new TrackerIngest.Receipt() {
+				@Override
+				public void done(boolean conceal)
+				{
+					if (conceal && concealsms)
+						result.abortBroadcast();
+					result.finish();
+				}
+			});
 			return;
-			
-		if (tracker.message != null)
-		{
-			tracker.message = tracker.message.trim();
-			if ("".equals(tracker.message))
-				tracker.message = null;
 		}
 
-		tracker.sender = Sender;
-				
-		if (! "".equals(tracker.sender))
-		{
-			// Save tracker data
-			TrackerDataAccess dataAccess = new TrackerDataAccess(context);
-			dataAccess.updateTracker(tracker);
-			
-			try
-			{
-				Application application = Application.getApplication();
-				tracker = dataAccess.getTracker(tracker.sender);//get  latest positon of tracker
-				
-				application.sendTrackerOnMap(dataAccess, tracker);
-			}
-			catch (RemoteException e)
-			{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			dataAccess.close();
-
-			context.sendBroadcast(new Intent(Application.TRACKER_DATE_RECEIVED_BROADCAST));
-
-			// Show notification
-			boolean notifications = prefs.getBoolean(context.getString(R.string.pref_tracker_notifications), context.getResources().getBoolean(R.bool.def_notifications));
-			if (notifications)
-			{
-				Intent i = new Intent("com.androzic.COORDINATES_RECEIVED");
-				i.putExtra("title", tracker.message != null ? tracker.message : tracker.name);
-				i.putExtra("sender", tracker.name);
-				i.putExtra("origin", context.getApplicationContext().getPackageName());
-				i.putExtra("lat", tracker.latitude);
-				i.putExtra("lon", tracker.longitude);
-
-				String msg = context.getString(R.string.notif_text, tracker.name);
-				NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
-				builder.setContentTitle(context.getString(R.string.app_name));
-				if (tracker.message != null)
-					builder.setContentText(tracker.name + ": " + tracker.message);
-				else
-					builder.setContentText(msg);
-				PendingIntent contentIntent = PendingIntent.getBroadcast(context, (int) tracker._id, i, PendingIntent.FLAG_ONE_SHOT);
-				builder.setContentIntent(contentIntent);
-				builder.setSmallIcon(R.drawable.ic_stat_tracker);
-				builder.setTicker(msg);
-				builder.setWhen(tracker.time);
-				int defaults = Notification.DEFAULT_LIGHTS | Notification.DEFAULT_SOUND;
-				boolean vibrate = prefs.getBoolean(context.getString(R.string.pref_tracker_vibrate), context.getResources().getBoolean(R.bool.def_vibrate));
-				if (vibrate)
-					defaults |= Notification.DEFAULT_VIBRATE;
-				builder.setDefaults(defaults);
-				builder.setAutoCancel(true);
-				Notification notification = builder.build();
-				NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-				notificationManager.notify((int) tracker._id, notification);
-			}
-
-			// Conceal SMS
-			boolean concealsms = prefs.getBoolean(context.getString(R.string.pref_tracker_concealsms), context.getResources().getBoolean(R.bool.def_concealsms));
-			if (concealsms)
-				abortBroadcast();
-		}
+		// Message is journaled before broadcast returns so that it is not lost if
+		// process dies before it is saved, saving, map update and notification are
+		// done off the main thread
+		if (ingest.receive(Sender, text, System.currentTimeMillis()) && concealsms)
+			abortBroadcast();
 	}
 
-	private boolean parseFlexMode(String text, Tracker tracker)
-	{
-		Log.w(TAG, "parseFlexMode");
-		
-        
-		//Pattern pattern = Pattern.compile("(-?\\d{1,3},\\d{5,6}[SN]?).+(-?\\d{1,3},\\d{5,6}[WE]?)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-		Pattern pattern = Pattern.compile("(-?\\d+(?:\\.|,)\\d{5,6}[SN]?)[^\\d-]+(-?\\d+(?:\\.|,)\\d{5,6}[WE]?)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-		Matcher m = pattern.matcher(text);
-		if (! m.find())
-			return false;
-		
-		Log.w(TAG, "parseFlexMode - match " + m.group(0));
-		
-		
-		
-		String latitude = m.group(1);
-		String longitude = m.group(2);
-
-		double coords[] = CoordinateParser.parse(latitude + " " + longitude);
-		if (Double.isNaN(coords[0]) || Double.isNaN(coords[1]))
-			return false;
-		
-		if(coords[0] < -180 || coords[0] > 180 ||
-		   coords[1] < -180 || coords[1] > 180)
-			return false;
-		
-		tracker.latitude = coords[0];
-		tracker.longitude = coords[1];
-		
-		pattern = Pattern.compile("speed[^\\d]{0,2}(\\d{1,3}(\\.\\d{1,4})?)[^\\d]", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-		m = pattern.matcher(text);
-		if (m.find())
-		{
-			String speed = m.group(1);
-			
-			try
-			{
-				tracker.speed = Double.parseDouble(speed) / 3.6;
-			}
-			catch (NumberFormatException ignore)
-			{
-			}
-		}
-		pattern = Pattern.compile("imei[^\\d]{0,2}(\\d+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-		m = pattern.matcher(text);
-		if ( m.find())
-		{
-			String imei = m.group(1);
-			tracker.imei =  imei;
-		}
-		
-		pattern = Pattern.compile("bat(?:tery)?[^\\d]{0,2}(\\d{1,3})[^\\d]", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-		m = pattern.matcher(text);
-		if ( m.find())
-		{
-			String batter = m.group(1);
-			try
-			{
-				tracker.battery = Integer.parseInt(batter);
-			}
-			catch (NumberFormatException ignore)
-			{
-			}
-		}
-	
-		Log.w(TAG, "parseFlexMode OK " + tracker.latitude + ", " + tracker.longitude);
-		return true;
-	}
-	
-	private boolean parseTK102Clone1(String text, Tracker tracker)
+	/**
+	 * Parses tracker message and fills tracker with its data
+	 * 
+	 * @param received time message was received
+	 * @return false if message is not recognized or has no sender
+	 */
+	static boolean parseMessage(Context context, String sender, String text, long received, Tracker tracker)
 	{
-		/* Clone TK-102
-		 
-		help me!
-		lat:50.123456 long:39.123456
-		speed:0.00
-		T:13/09/30 10:27
-		bat:100%
-		http://maps.google.com/maps?f=q&q=50.... 
-		
-		lat:50.123456lon:39.123456
-		speed:0.00
-		T:13/09/30 10:27
-		bat:100% 3597100123456789
-		http://maps.google.com/maps?f=q&q=50.... 
-		
-		lat:51.123456lon:39.123456 speed:0.00 T:13/09/30 10:27 bat:100% 3597100123456789 http://maps.google.com
-		
-		*/		
-
-		Log.w(TAG, "parseTK102Clone1");
-		
-		Pattern pattern = Pattern.compile("(.*)?\\s?lat:\\s?([^\\sl]+)\\s?long?:\\s?([^\\s]+)\\s?speed:\\s?([\\d\\.]+)\\s?T:?([\\d/:\\.\\s]+)\\s?bat:([^%]+)%\\s?(\\d+)?(.+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-		Matcher m = pattern.matcher(text);
-		if (! m.matches())
-			return false;
-
-		String latitude = m.group(2);
-		String longitude = m.group(3);
-
-		double coords[] = CoordinateParser.parse(latitude + " " + longitude);
-		if (Double.isNaN(coords[0]) || Double.isNaN(coords[1]))
+		TrackerMessageParser preferred = ParserAffinity.get(context, sender);
+		TrackerMessageParser parser = TrackerMessageParsers.parse(text, received, tracker, isFlexMode(context), preferred);
+		ParserStatistics.flushIfDue(context);
+		if (parser == null)
 			return false;
 
-		tracker.latitude = coords[0];
-		tracker.longitude = coords[1];
-		
-		try
-		{
-			tracker.speed = Double.parseDouble(m.group(4)) / 3.6;
-		}
-		catch (NumberFormatException ignore)
-		{
-		}
-
-		String time = m.group(5);
-		try
-		{
-			Date date = TK102Clone1DateFormatter.parse(time);
-			tracker.time = date.getTime();
-		}
-		catch (Exception e)
-		{
-			Log.e(TAG, "Date error", e);
-		}
-
-		String battery = m.group(6);
-		try
-		{
-			tracker.battery = Integer.parseInt(battery);
-		}
-		catch (NumberFormatException ignore)
-		{
-		}
+		Log.w(TAG, "Parsed by " + parser.getName());
+		if (parser != preferred)
+			ParserAffinity.put(context, sender, parser);
 
-		String s_imei =  m.group(7);
-		
-		if ( s_imei != null )	
-		   tracker.imei = s_imei;
-		
-		String message = m.group(1);
-		if (! "".equals(message))
-			tracker.message = message;
-		
-		
-		return true;
+		return complete(sender, text, tracker);
 	}
-	
-	private boolean parseJointechJT600(String text, Tracker tracker)
-	{
-		// Jointech JT600
-		// jeson,09-28 12:11:02,Speed:32km/h,Battery:80%,GPS:13,STANDARD,
-		// http://maps.google.com/?q=22.549737N,114.076685E
-		// 3110701703,09-28 12:11:02,Speed:0km/h,Charging,Base Station,STANDARD,Cell ID:4195,LAC:230
-		// 3110701703,04-24 22:44:33,Speed:0km/h,Battery:90%,GPS:8,STANDARD,
-		// http://maps.google.com/?q=60.010245N,30.288323E
-		// ALM,SOS,3110701703,09-28 12:11:02,Speed:32km/h,Battery:80%,GPS:13,STANDARD,http://maps.google.com/?q=22.549737N,114.076685E
-		// http://fiddle.re/yv1h6
-		Pattern pattern = Pattern.compile("(?:ALM,)?(?:(.*),)?([^,]+),([\\d\\-:\\s]+),(?:Speed:(\\d+)km/h,)?(?:Battery:(\\d+)%|Charging),[^,]+,[^,]+,(?:\\r?\\n)?http://maps\\.google\\.com/\\?q=([^,]+),(.+)");
-		Matcher m = pattern.matcher(text);
-		if (! m.matches())
-			return false;
 
-		String latitude = m.group(6);
-		String longitude = m.group(7);
-
-		double coords[] = CoordinateParser.parse(latitude + " " + longitude);
-		if (Double.isNaN(coords[0]) || Double.isNaN(coords[1]))
+	/**
+	 * Parses message stored in inbox. Unlike parseMessage() it does not count parser
+	 * statistics and does not remember parser of sender.
+	 * 
+	 * @param received time message was received
+	 * @return false if message is not recognized or has no sender
+	 */
+	static boolean parseStoredMessage(Context context, String sender, String text, long received, Tracker tracker)
+	{
+		TrackerMessageParser preferred = ParserAffinity.get(context, sender);
+		if (TrackerMessageParsers.parseQuietly(text, received, tracker, isFlexMode(context), preferred) == null)
 			return false;
-
-		tracker.latitude = coords[0];
-		tracker.longitude = coords[1];
-
-		try
-		{
-			String speed = m.group(4);
-			if (speed != null)
-				tracker.speed = Double.parseDouble(speed) / 3.6;
-		}
-		catch (NumberFormatException ignore)
-		{
-		}
-
-		String time = m.group(3);
-		try
-		{
-			Date date = JointechDateFormatter.parse(time);
-			Date now = new Date();
-			date.setYear(now.getYear());
-			tracker.time = date.getTime();
-		}
-		catch (Exception e)
-		{
-			Log.e(TAG, "Date error", e);
-		}
-
-		String battery = m.group(5);
-		try
-		{
-			tracker.battery = Integer.parseInt(battery);
-		}
-		catch (NumberFormatException ignore)
-		{
-		}
-
-		tracker.imei = m.group(2);
-
-		String message = m.group(1);
-		if (! "".equals(message))
-			tracker.message = message;
-		
-		return true;
+		return complete(sender, text, tracker);
 	}
 
-	private boolean parseXexunTK102(String text, Tracker tracker)
+	private static boolean isFlexMode(Context context)
 	{
-		// Xexun family and some clones
-		// lat: 55.807693 long: 037.730640 speed: 000.0 03/03/13 16:18   bat:F signal:F  imei:358948010446647
-		// lat:55.950468 long:035.867116 speed: 000.0 24/11/12 08:54 bat:F signal:F imei:358948010446647
-		// lat: 123.345678N long: 0.125621W speed: 001.2 17/07/11 21:34 F:3.92V,1,Signal:F help me imei:123456789012 07 83.8 234 15 006B 24C4
-		// lat: 22.566901 long: 114.051258 speed: 0.00 14/08/09 06.54 F:3.85V,1,Signal:F help me imei:354776031555474 05 43.5 460 01 2533 720B
-		// help me! lat:123.45678 long:001.23456 speed:090.00 T:17/01/11 15:14 Bat:25% Signal:F imei:1234567
-		// http://fiddle.re/fpfa6
-		Pattern pattern = Pattern.compile("(.*)?\\s?lat:\\s?([^\\s]+)\\slong:\\s?([^\\s]+)\\sspeed:\\s?([\\d\\.]+)\\s(?:T:)?([\\d/:\\.\\s]+)\\s(?:bat|F):([^\\s,]+)(?:V,\\d,)?\\s?signal:([^\\s]+)\\s(.*)?\\s?imei:(\\d+)", Pattern.CASE_INSENSITIVE);
-		Matcher m = pattern.matcher(text);
-		if (! m.matches())
-			return false;
-
-		String latitude = m.group(2);
-		String longitude = m.group(3);
-
-		double coords[] = CoordinateParser.parse(latitude + " " + longitude);
-		if (Double.isNaN(coords[0]) || Double.isNaN(coords[1]))
-			return false;
-
-		tracker.latitude = coords[0];
-		tracker.longitude = coords[1];
-
-		try
-		{
-			tracker.speed = Double.parseDouble(m.group(4)) / 3.6;
-		}
-		catch (NumberFormatException ignore)
-		{
-		}
-
-		String time = m.group(5);
-		try
-		{
-			Date date = XexunDateFormatter.parse(time);
-			tracker.time = date.getTime();
-		}
-		catch (Exception e)
-		{
-			Log.e(TAG, "Date error", e);
-		}
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		return prefs.getBoolean(context.getString(R.string.pref_tracker_use_flex_mode), context.getResources().getBoolean(R.bool.def_flex_mode));
+	}
 
-		String battery = m.group(6);
-		if ("F".equals(battery))
-			tracker.battery = Tracker.LEVEL_FULL;
-		if ("L".equals(battery))
-			tracker.battery = Tracker.LEVEL_LOW;
-		try
-		{
-			if (battery.endsWith("%"))
-				tracker.battery = Integer.parseInt(battery.substring(0, battery.length() - 1));
-			if (realNumber.matcher(battery).matches())
-				tracker.battery = (int) (Float.parseFloat(battery) * 100);
-		}
-		catch (NumberFormatException ignore)
+	private static boolean complete(String sender, String text, Tracker tracker)
+	{
+		if (tracker.message != null)
 		{
+			tracker.message = tracker.message.trim();
+			if ("".equals(tracker.message))
+				tracker.message = null;
 		}
 
-		String signal = m.group(7);
-		if ("F".equals(signal))
-			tracker.signal = Tracker.LEVEL_FULL;
-		if ("L".equals(signal) || "0".equals(signal))
-			tracker.signal = Tracker.LEVEL_LOW;
-
-		tracker.imei = m.group(9);
-
-		String message = m.group(1);
-		if (! "".equals(message))
-			tracker.message = message;
-		message = m.group(8);
-		if (! "".equals(message))
-			tracker.message = message;
+		tracker.sender = sender;
+		tracker.alarm = isAlarm(text, tracker);
+		return sender != null && ! "".equals(sender);
+	}
 
-		return true;
+	/**
+	 * Tells if message is an alarm: Jointech "ALM," report or Xexun "help me" SOS
+	 */
+	static boolean isAlarm(String text, Tracker tracker)
+	{
+		if (text.startsWith("ALM,"))
+			return true;
+		return tracker.message != null && tracker.message.regionMatches(true, 0, "help me", 0, 7);
 	}
 }
@@ -0,0 +1,94 @@
+package com.androzic.plugin.tracker;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Clone TK-102
+ */
+class TK102Clone1Parser implements TrackerMessageParser
+{
+	/*
+	help me!
+	lat:50.123456 long:39.123456
+	speed:0.00
+	T:13/09/30 10:27
+	bat:100%
+	http://maps.google.com/maps?f=q&q=50.... 
+	
+	lat:50.123456lon:39.123456
+	speed:0.00
+	T:13/09/30 10:27
+	bat:100% 3597100123456789
+	http://maps.google.com/maps?f=q&q=50.... 
+	
+	lat:51.123456lon:39.123456 speed:0.00 T:13/09/30 10:27 bat:100% 3597100123456789 http://maps.google.com
+	*/
+	private static final Pattern pattern = Pattern.compile("(.*)?\\s?lat:\\s?([^\\sl]+)\\s?long?:\\s?([^\\s]+)\\s?speed:\\s?([\\d\\.]+)\\s?T:?([\\d/:\\.\\s]+)\\s?bat:([^%]+)%\\s?(\\d+)?(.+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	@Override
+	public String getName()
+	{
+		return "TK102Clone1";
+	}
+
+	@Override
+	public int getMaxLength()
+	{
+		// report with user message does not fit single SMS
+		return ParsingGuard.SMS_LENGTH * 2;
+	}
+
+	@Override
+	public boolean accepts(MessageFingerprint fingerprint)
+	{
+		return fingerprint.has(MessageFingerprint.LAT | MessageFingerprint.LON | MessageFingerprint.SPEED | MessageFingerprint.BAT);
+	}
+
+	@Override
+	public boolean parse(String text, long received, Tracker tracker)
+	{
+		Matcher m = pattern.matcher(text);
+		if (! m.matches())
+			return false;
+
+		double latitude = CoordinateDecoder.decodeLatitude(text, m.start(2), m.end(2));
+		double longitude = CoordinateDecoder.decodeLongitude(text, m.start(3), m.end(3));
+		if (Double.isNaN(latitude) || Double.isNaN(longitude))
+			return false;
+
+		tracker.latitude = latitude;
+		tracker.longitude = longitude;
+
+		try
+		{
+			tracker.speed = Double.parseDouble(m.group(4)) / 3.6;
+		}
+		catch (NumberFormatException ignore)
+		{
+		}
+
+		tracker.time = TrackerTimeDecoder.decodeYearMonthDayTime(text, m.start(5), m.end(5), TrackerTimeDecoder.deviceZone(received));
+
+		String battery = m.group(6);
+		try
+		{
+			tracker.battery = Integer.parseInt(battery);
+		}
+		catch (NumberFormatException ignore)
+		{
+		}
+
+		String s_imei = m.group(7);
+		if (s_imei != null)
+			tracker.imei = s_imei;
+
+		String message = m.group(1);
+		if (! "".equals(message))
+			tracker.message = message;
+
+		return true;
+	}
+}
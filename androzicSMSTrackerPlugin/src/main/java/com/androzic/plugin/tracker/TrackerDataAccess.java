@@ -27,12 +27,20 @@ import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
 import com.androzic.data.TrackerFootprins;
 import com.androzic.data.Tracker;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class helps open, create, and upgrade the database file.
@@ -40,9 +48,13 @@ import java.util.ArrayList;
 class TrackerDataAccess extends SQLiteOpenHelper
 {
 	private static final String DATABASE_NAME = "tracker.db";
-	private static final int DATABASE_VERSION = 4;
+	private static final int DATABASE_VERSION = 9;
 	static final String TABLE_TRACKERS = "trackers";
 	static final String TABLE_HISTORY = "history";
+	/** Index of history by tracker, newest points first */
+	static final String INDEX_HISTORY_TRACKER_TIME = "history_tracker_time";
+	static final String TABLE_SENDER_PARSERS = "sender_parsers";
+	static final String TABLE_PARSER_STATS = "parser_stats";
 	private static final String TAG = "TrackerDataAccess";
 	/**
 	 * ID
@@ -134,29 +146,125 @@ class TrackerDataAccess extends SQLiteOpenHelper
 	public static final String TIME = "time";
 	// key for history point
 	public static final String _POINT_ID = "_point_id";
+	// name of parser which last recognized message from sender
+	public static final String PARSER = "parser";
+	// parser statistics
+	public static final String ATTEMPTS = "attempts";
+	public static final String SUCCESSES = "successes";
+	public static final String FAILURES = "failures";
+	public static final String NANOS = "nanos";
+	public static final String MAX_NANOS = "max_nanos";
+	public static final String MAXIMUM = "maximum";
+	public static final String P50 = "p50_us";
+	public static final String P90 = "p90_us";
+	public static final String P99 = "p99_us";
+	public static final String HISTOGRAM = "histogram";
+
+	// Selections and sort orders of queries, also explained by debug query plan check
+	static final String WHERE_SENDER = SENDER + " = ?";
+	static final String WHERE_TRACKER = _TRACKER_ID + " = ?";
+	static final String WHERE_HAS_FIX = TIME + " IS NOT NULL";
+	static final String WHERE_HAS_MOID = MOID + " > 0";
+	static final String WHERE_FOOTPRINTS = TRACKER_ID + " = ?";
+	static final String WHERE_FOOTPRINT_AT = TRACKER_ID + " = ? AND " + TIME + " = ?";
+	static final String WHERE_STALE_SENDER = SENDER + " NOT IN (SELECT " + SENDER + " FROM " + TABLE_SENDER_PARSERS + " ORDER BY " + MODIFIED + " DESC LIMIT ?)";
+	static final String ORDER_FOOTPRINTS = TIME + " DESC";
+	static final String ORDER_SENDER_PARSERS = MODIFIED + " ASC";
 	
 	private static final String[] trackerColumnsId = new String[] { _TRACKER_ID };
-	private static final String[] trackersColumnsAll = new String[] { _TRACKER_ID, MOID, TITLE, ICON, IMEI, SENDER /*, LATITUDE, LONGITUDE, SPEED, BATTERY, SIGNAL, MODIFIED*/ };
+	private static final String[] trackersColumnsAll = new String[] { _TRACKER_ID, MOID, TITLE, ICON, IMEI, SENDER, LATITUDE, LONGITUDE, SPEED, BATTERY, SIGNAL, TIME };
 
 	private static final String[] pointColumnsId = new String[] { _POINT_ID };
 	private static final String[] pointColumnsAll = new String[] { _POINT_ID, LATITUDE, LONGITUDE, SPEED, BATTERY, SIGNAL, TIME };
 
-	
-	TrackerDataAccess(Context context)
+	// Write path statements, compiled once per database connection. They are used only
+	// within transactions, so the single writer connection serializes their use.
+	static final int STATEMENT_INSERT_HISTORY = 0;
+	static final int STATEMENT_INSERT_TRACKER = 1;
+	static final int STATEMENT_UPDATE_TRACKER = 2;
+	static final int STATEMENT_UPDATE_FOOTPRINT_MOID = 3;
+	private static final String TRACKER_VALUES = MOID + ", " + TITLE + ", " + ICON + ", " + IMEI + ", " + SENDER + ", "
+			+ LATITUDE + ", " + LONGITUDE + ", " + SPEED + ", " + BATTERY + ", " + SIGNAL + ", " + TIME;
+	static final String[] STATEMENTS = new String[] {
+		"INSERT INTO " + TABLE_HISTORY + " (" + TRACKER_ID + ", " + LATITUDE + ", " + LONGITUDE + ", " + SPEED + ", " + BATTERY + ", " + SIGNAL + ", " + TIME + ") VALUES (?, ?, ?, ?, ?, ?, ?)",
+		"INSERT INTO " + TABLE_TRACKERS + " (" + TRACKER_VALUES + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+		"UPDATE " + TABLE_TRACKERS + " SET " + MOID + " = ?, " + TITLE + " = ?, " + ICON + " = ?, " + IMEI + " = ?, " + SENDER + " = ?, "
+				+ LATITUDE + " = ?, " + LONGITUDE + " = ?, " + SPEED + " = ?, " + BATTERY + " = ?, " + SIGNAL + " = ?, " + TIME + " = ? WHERE " + _TRACKER_ID + " = ?",
+		"UPDATE " + TABLE_HISTORY + " SET " + MOID + " = ? WHERE " + _POINT_ID + " = ?"
+	};
+
+	private final SQLiteStatement[] statements = new SQLiteStatement[STATEMENTS.length];
+	private SQLiteDatabase statementsDb;
+
+	private static TrackerDataAccess instance;
+
+	/**
+	 * Returns process-wide database access, database is opened lazily on first query
+	 * and stays open for the life of the process, as activities keep references to it.
+	 * Returned instance must not be closed by callers.
+	 */
+	static synchronized TrackerDataAccess getInstance(Context context)
 	{
+		if (instance == null)
+			instance = new TrackerDataAccess(context.getApplicationContext(), DATABASE_NAME);
+		return instance;
+	}
 
-		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	/**
+	 * Opens database with the same schema in another file, used by benchmarks
+	 */
+	TrackerDataAccess(Context context, String name)
+	{
+
+		super(context, name, null, DATABASE_VERSION);
+
+		// Write-ahead log lets readers run while background writer saves fixes
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+			setWriteAheadLoggingEnabled(true);
 		
 		Log.w(TAG, ">>>> Constructor DB_VER " + DATABASE_VERSION);
 	}
 
+	@Override
+	public void onOpen(SQLiteDatabase db)
+	{
+		super.onOpen(db);
+		// Foreign keys are enabled per connection, history of removed tracker is deleted by cascade
+		if (! db.isReadOnly())
+			db.execSQL("PRAGMA foreign_keys = ON;");
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && ! db.isReadOnly())
+			db.enableWriteAheadLogging();
+	}
+
 	public long updateTracker(Tracker tracker)
 	{
 		Log.w(TAG, ">>>> updateTracker(" + tracker.sender + ")");
 		
-		ContentValues values = new ContentValues();
 		SQLiteDatabase db = getWritableDatabase();
-		
+
+		// Latest fix in trackers table is updated together with history
+		db.beginTransaction();
+		try
+		{
+			tracker = updateTracker(db, tracker);
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		Log.w(TAG, ">>>> updateTracker tracker.time = " + tracker.time);
+		return tracker._id;
+	}
+
+	/**
+	 * Saves tracker fix, must be called within transaction
+	 * 
+	 * @return saved tracker or its newer state from database if fix is older
+	 */
+	private Tracker updateTracker(SQLiteDatabase db, Tracker tracker)
+	{
 		if (tracker.time == 0)
 			tracker.time = System.currentTimeMillis();
 
@@ -182,39 +290,36 @@ class TrackerDataAccess extends SQLiteOpenHelper
 		if ("".equals(tracker.name))
 			tracker.name = tracker.sender;
 			
-		values.clear();
-		
-		values.put(MOID, tracker.moid);
-		values.put(TITLE, tracker.name);
-		values.put(ICON, tracker.image);
-		values.put(IMEI, tracker.imei);
-		values.put(SENDER, tracker.sender);
-				
+		// Tracker row keeps latest fix
 		if (dbTracker == null)
 		{
-			tracker._id = db.insert(TABLE_TRACKERS, null, values);			
+			SQLiteStatement statement = getStatement(db, STATEMENT_INSERT_TRACKER);
+			synchronized (statement)
+			{
+				bindTracker(statement, tracker);
+				tracker._id = statement.executeInsert();
+			}
 		}
 		else if (tracker.time >= dbTracker.time )
 		{
 			tracker._id = dbTracker._id;
 			
-			db.update(TABLE_TRACKERS, values, _TRACKER_ID + " = ?", new String[] { String.valueOf(dbTracker._id) });
+			SQLiteStatement statement = getStatement(db, STATEMENT_UPDATE_TRACKER);
+			synchronized (statement)
+			{
+				bindTracker(statement, tracker);
+				statement.bindLong(12, dbTracker._id);
+				executeUpdateDelete(statement);
+			}
 		}
 		
 		
+		// Older fix may be already known if it is imported from inbox
 		if (tracker._id != -1 
-		    && ( dbTracker == null || ( dbTracker != null && tracker.time != dbTracker.time )) )
+		    && ( dbTracker == null || ( dbTracker != null && tracker.time != dbTracker.time ))
+		    && ( dbTracker == null || tracker.time > dbTracker.time || ! hasHistoryPoint(db, tracker._id, tracker.time)) )
 		{
-			values.clear();
-			values.put(TRACKER_ID, tracker._id);
-			values.put(LATITUDE, tracker.latitude);
-			values.put(LONGITUDE, tracker.longitude);
-			values.put(SPEED, tracker.speed);
-			values.put(BATTERY, tracker.battery);
-			values.put(SIGNAL, tracker.signal);
-			values.put(TIME, Long.valueOf(tracker.time));
-			
-			db.insert(TABLE_HISTORY, null, values);
+			insertHistoryPoint(db, tracker);
 		}
 		
 		if( dbTracker != null && ( tracker.time < dbTracker.time ) )
@@ -222,8 +327,132 @@ class TrackerDataAccess extends SQLiteOpenHelper
 			tracker = dbTracker;
 		}
 		
-		Log.w(TAG, ">>>> updateTracker tracker.time = " + tracker.time);
-		return tracker._id;
+		return tracker;
+	}
+
+	/**
+	 * Inserts tracker fix into history with precompiled statement, must be called within transaction
+	 */
+	long insertHistoryPoint(SQLiteDatabase db, Tracker tracker)
+	{
+		SQLiteStatement statement = getStatement(db, STATEMENT_INSERT_HISTORY);
+		synchronized (statement)
+		{
+			statement.bindLong(1, tracker._id);
+			statement.bindDouble(2, tracker.latitude);
+			statement.bindDouble(3, tracker.longitude);
+			statement.bindDouble(4, tracker.speed);
+			statement.bindLong(5, tracker.battery);
+			statement.bindLong(6, tracker.signal);
+			statement.bindLong(7, tracker.time);
+			return statement.executeInsert();
+		}
+	}
+
+	private static void bindTracker(SQLiteStatement statement, Tracker tracker)
+	{
+		statement.bindLong(1, tracker.moid);
+		bindString(statement, 2, tracker.name);
+		bindString(statement, 3, tracker.image);
+		bindString(statement, 4, tracker.imei);
+		bindString(statement, 5, tracker.sender);
+		statement.bindDouble(6, tracker.latitude);
+		statement.bindDouble(7, tracker.longitude);
+		statement.bindDouble(8, tracker.speed);
+		statement.bindLong(9, tracker.battery);
+		statement.bindLong(10, tracker.signal);
+		statement.bindLong(11, tracker.time);
+	}
+
+	private static void bindString(SQLiteStatement statement, int index, String value)
+	{
+		if (value == null)
+			statement.bindNull(index);
+		else
+			statement.bindString(index, value);
+	}
+
+	/**
+	 * Executes UPDATE statement, number of changed rows is known only since Honeycomb
+	 */
+	private static int executeUpdateDelete(SQLiteStatement statement)
+	{
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+			return statement.executeUpdateDelete();
+		statement.execute();
+		return 1;
+	}
+
+	/**
+	 * Returns compiled write statement, statements are recompiled if database was reopened
+	 */
+	private synchronized SQLiteStatement getStatement(SQLiteDatabase db, int index)
+	{
+		if (db != statementsDb)
+		{
+			closeStatements();
+			statementsDb = db;
+		}
+		if (statements[index] == null)
+			statements[index] = db.compileStatement(STATEMENTS[index]);
+		return statements[index];
+	}
+
+	private void closeStatements()
+	{
+		for (int i = 0; i < statements.length; i++)
+		{
+			if (statements[i] != null)
+				statements[i].close();
+			statements[i] = null;
+		}
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		closeStatements();
+		statementsDb = null;
+		super.close();
+	}
+
+	private boolean hasHistoryPoint(SQLiteDatabase db, long trackerId, long time)
+	{
+		Cursor cursor = db.query(TABLE_HISTORY, pointColumnsId, WHERE_FOOTPRINT_AT, new String[] { String.valueOf(trackerId), String.valueOf(time) }, null, null, null, "1");
+		boolean exists = cursor.getCount() > 0;
+		cursor.close();
+		return exists;
+	}
+
+	/**
+	 * Saves several tracker fixes in one transaction
+	 *
+	 * @return latest state of every updated tracker by sender, in order of first appearance
+	 */
+	public Map<String, Tracker> updateTrackers(List<Tracker> trackers)
+	{
+		Log.w(TAG, ">>>> updateTrackers(" + trackers.size() + ")");
+
+		Map<String, Tracker> latest = new LinkedHashMap<String, Tracker>();
+		SQLiteDatabase db = getWritableDatabase();
+
+		db.beginTransaction();
+		try
+		{
+			for (Tracker tracker : trackers)
+			{
+				updateTracker(db, tracker);
+				latest.put(tracker.sender, null);
+			}
+			for (Map.Entry<String, Tracker> entry : latest.entrySet())
+				entry.setValue(getTracker(entry.getKey()));
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return latest;
 	}
 
 
@@ -231,13 +460,13 @@ class TrackerDataAccess extends SQLiteOpenHelper
 	{
 		Log.w(TAG, ">>>> removeTracker(" + tracker.sender + ")");
 		SQLiteDatabase db = getWritableDatabase();
-		Cursor cursor = db.query(TrackerDataAccess.TABLE_TRACKERS, trackerColumnsId, SENDER + " = ?", new String[] { tracker.sender }, null, null, null);
+		Cursor cursor = db.query(TrackerDataAccess.TABLE_TRACKERS, trackerColumnsId, WHERE_SENDER, new String[] { tracker.sender }, null, null, null);
 		if (cursor.getCount() > 0)
 		{
 			cursor.moveToFirst();
 			long id = cursor.getLong(cursor.getColumnIndex(_TRACKER_ID));
 			cursor.close();
-			db.delete(TrackerDataAccess.TABLE_TRACKERS, _TRACKER_ID + " = ?", new String[] { String.valueOf(id) });
+			db.delete(TrackerDataAccess.TABLE_TRACKERS, WHERE_TRACKER, new String[] { String.valueOf(id) });
 		}
 	}
 
@@ -247,7 +476,7 @@ class TrackerDataAccess extends SQLiteOpenHelper
 		
 		SQLiteDatabase db = getReadableDatabase();
 		
-		Cursor cursor = db.query(TABLE_TRACKERS, null, SENDER + " = ?", new String[] { sender }, null, null, null);
+		Cursor cursor = db.query(TABLE_TRACKERS, null, WHERE_SENDER, new String[] { sender }, null, null, null);
 				
 		if (cursor.getCount() > 0)
 		{
@@ -259,20 +488,20 @@ class TrackerDataAccess extends SQLiteOpenHelper
 		return null;
 	}
 
+	/**
+	 * Reads tracker with its latest fix from current row of trackers table
+	 * 
+	 * @return tracker or null if it has no fixes
+	 */
 	public Tracker getFullInfoTracker(Cursor cursor)
 	{
 		Log.w(TAG, ">>>> getFullInfoTracker(Cursor cursor)");
 		
-		SQLiteDatabase db = getReadableDatabase();
-		
-		Cursor historyCur = db.query(TABLE_HISTORY, null, TRACKER_ID + " = ?", new String[] { cursor.getString(cursor.getColumnIndex(_TRACKER_ID)) }, null, null, TIME + " DESC");
-		
-		if (historyCur.getCount() == 0)
+		int timeColumn = cursor.getColumnIndex(TIME);
+		if (cursor.isNull(timeColumn))
 		{
 			return null;
 		}		
-		
-		historyCur.moveToFirst();
 			
 		Tracker tracker = new Tracker();
 		
@@ -284,12 +513,12 @@ class TrackerDataAccess extends SQLiteOpenHelper
 		tracker.image = cursor.getString(cursor.getColumnIndex(ICON));
 		
 		
-		tracker.latitude = historyCur.getDouble(historyCur.getColumnIndex(LATITUDE));
-		tracker.longitude = historyCur.getDouble(historyCur.getColumnIndex(LONGITUDE));
-		tracker.speed = historyCur.getFloat(historyCur.getColumnIndex(SPEED));
-		tracker.battery = historyCur.getInt(historyCur.getColumnIndex(BATTERY));
-		tracker.signal = historyCur.getInt(historyCur.getColumnIndex(SIGNAL));
-		tracker.time = historyCur.getLong(historyCur.getColumnIndex(TIME));
+		tracker.latitude = cursor.getDouble(cursor.getColumnIndex(LATITUDE));
+		tracker.longitude = cursor.getDouble(cursor.getColumnIndex(LONGITUDE));
+		tracker.speed = cursor.getFloat(cursor.getColumnIndex(SPEED));
+		tracker.battery = cursor.getInt(cursor.getColumnIndex(BATTERY));
+		tracker.signal = cursor.getInt(cursor.getColumnIndex(SIGNAL));
+		tracker.time = cursor.getLong(timeColumn);
 		
 		return tracker;
 	}
@@ -327,31 +556,91 @@ class TrackerDataAccess extends SQLiteOpenHelper
 		return db.query(TrackerDataAccess.TABLE_TRACKERS, null , null, null, null, null, null);
 	}
 
+	/**
+	 * Returns trackers which have fixes together with their latest fix, in one query.
+	 * Rows are read with getFullInfoTracker().
+	 */
+	public Cursor getTrackersOverview()
+	{
+		Log.w(TAG, ">>>> getTrackersOverview()");
+
+		SQLiteDatabase db = getReadableDatabase();
+
+		return db.query(TABLE_TRACKERS, trackersColumnsAll, WHERE_HAS_FIX, null, null, null, null);
+	}
+
+	/**
+	 * Clears map object IDs of all trackers and footprints
+	 * 
+	 * @return cleared map object IDs
+	 */
+	public Set<Long> clearAllMoids()
+	{
+		Log.w(TAG, ">>>> clearAllMoids()");
+
+		Set<Long> moids = new HashSet<Long>();
+		SQLiteDatabase db = getWritableDatabase();
+
+		db.beginTransaction();
+		try
+		{
+			for (String table : new String[] { TABLE_TRACKERS, TABLE_HISTORY })
+			{
+				Cursor cursor = db.query(table, new String[] { MOID }, WHERE_HAS_MOID, null, null, null, null);
+				while (cursor.moveToNext())
+					moids.add(cursor.getLong(0));
+				cursor.close();
+
+				ContentValues values = new ContentValues();
+				values.put(MOID, 0);
+				db.update(table, values, WHERE_HAS_MOID, null);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return moids;
+	}
+
 	public Cursor getTrackerFootprints(long trackerId)
 	{	
 		Log.w(TAG, ">>>> getTrackerFootprints()");
 		
 		SQLiteDatabase db = getReadableDatabase();
 		
-		return db.query(TrackerDataAccess.TABLE_HISTORY, null , TRACKER_ID + " = ?" , new String[] {String.valueOf(trackerId)}, null, null, TIME + " DESC");
+		return db.query(TrackerDataAccess.TABLE_HISTORY, null , WHERE_FOOTPRINTS , new String[] {String.valueOf(trackerId)}, null, null, ORDER_FOOTPRINTS);
 	}
 	
 	public int saveFootprintMoid(String footprintId, String moid)
 	{
-		Log.w(TAG, ">>>> saveFootprintMoid(" + footprintId + "," + moid + ")");
-		
-		SQLiteDatabase db = getReadableDatabase();
-		
-		ContentValues values = new ContentValues();
-		
-		values.put(MOID, moid);
-		
-		return db.update(TABLE_HISTORY, values, _POINT_ID + " = ?", new String[] { footprintId });
+		return saveFootprintMoid(Long.parseLong(footprintId), Long.parseLong(moid));
 	}
 	
 	public int saveFootprintMoid(long footprintId, long moid)
 	{
-		return saveFootprintMoid( String.valueOf(footprintId), String.valueOf(moid)); 
+		Log.w(TAG, ">>>> saveFootprintMoid(" + footprintId + "," + moid + ")");
+		
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try
+		{
+			SQLiteStatement statement = getStatement(db, STATEMENT_UPDATE_FOOTPRINT_MOID);
+			int count;
+			synchronized (statement)
+			{
+				statement.bindLong(1, moid);
+				statement.bindLong(2, footprintId);
+				count = executeUpdateDelete(statement);
+			}
+			db.setTransactionSuccessful();
+			return count;
+		}
+		finally
+		{
+			db.endTransaction();
+		}
 	}
 	
 	public int clearFootprintMoids(String trackerId)
@@ -364,9 +653,114 @@ class TrackerDataAccess extends SQLiteOpenHelper
 		
 		values.put(MOID, 0);
 		
-		return db.update(TABLE_HISTORY, values, TRACKER_ID + " = ?", new String[] { trackerId });
+		return db.update(TABLE_HISTORY, values, WHERE_FOOTPRINTS, new String[] { trackerId });
 	}
 	
+	/**
+	 * Loads most recently used parser names of senders
+	 * 
+	 * @param limit maximum number of senders to load, older entries are deleted
+	 */
+	public Map<String, String> getSenderParsers(int limit)
+	{
+		Log.w(TAG, ">>>> getSenderParsers(" + limit + ")");
+
+		SQLiteDatabase db = getWritableDatabase();
+
+		db.delete(TABLE_SENDER_PARSERS, WHERE_STALE_SENDER, new String[] { String.valueOf(limit) });
+
+		Map<String, String> parsers = new LinkedHashMap<String, String>();
+		Cursor cursor = db.query(TABLE_SENDER_PARSERS, new String[] { SENDER, PARSER }, null, null, null, null, ORDER_SENDER_PARSERS);
+		while (cursor.moveToNext())
+		{
+			parsers.put(cursor.getString(0), cursor.getString(1));
+		}
+		cursor.close();
+		return parsers;
+	}
+
+	public void saveSenderParser(String sender, String parser)
+	{
+		Log.w(TAG, ">>>> saveSenderParser(" + sender + "," + parser + ")");
+
+		SQLiteDatabase db = getWritableDatabase();
+
+		ContentValues values = new ContentValues();
+		values.put(SENDER, sender);
+		values.put(PARSER, parser);
+		values.put(MODIFIED, System.currentTimeMillis());
+
+		db.insertWithOnConflict(TABLE_SENDER_PARSERS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	public List<ParserStatistics.Entry> getParserStatistics()
+	{
+		Log.w(TAG, ">>>> getParserStatistics()");
+
+		SQLiteDatabase db = getReadableDatabase();
+
+		List<ParserStatistics.Entry> entries = new ArrayList<ParserStatistics.Entry>();
+		Cursor cursor = db.query(TABLE_PARSER_STATS, new String[] { PARSER, ATTEMPTS, SUCCESSES, FAILURES, NANOS, MAX_NANOS, MAXIMUM, HISTOGRAM }, null, null, null, null, null);
+		while (cursor.moveToNext())
+		{
+			ParserStatistics.Entry entry = new ParserStatistics.Entry(cursor.getString(0));
+			entry.attempts = cursor.getLong(1);
+			entry.successes = cursor.getLong(2);
+			entry.failures = cursor.getLong(3);
+			entry.nanos = cursor.getLong(4);
+			entry.maxNanos = cursor.getLong(5);
+			entry.maximum = cursor.getLong(6);
+			entry.histogramFromString(cursor.getString(7));
+			entries.add(entry);
+		}
+		cursor.close();
+		return entries;
+	}
+
+	public void saveParserStatistics(Collection<ParserStatistics.Entry> entries)
+	{
+		Log.w(TAG, ">>>> saveParserStatistics()");
+
+		SQLiteDatabase db = getWritableDatabase();
+		long now = System.currentTimeMillis();
+
+		db.beginTransaction();
+		try
+		{
+			ContentValues values = new ContentValues();
+			for (ParserStatistics.Entry entry : entries)
+			{
+				values.clear();
+				values.put(PARSER, entry.name);
+				values.put(ATTEMPTS, entry.attempts);
+				values.put(SUCCESSES, entry.successes);
+				values.put(FAILURES, entry.failures);
+				values.put(NANOS, entry.nanos);
+				values.put(MAX_NANOS, entry.maxNanos);
+				values.put(MAXIMUM, entry.maximum);
+				values.put(P50, entry.percentile(50));
+				values.put(P90, entry.percentile(90));
+				values.put(P99, entry.percentile(99));
+				values.put(HISTOGRAM, entry.histogramToString());
+				values.put(MODIFIED, now);
+				db.insertWithOnConflict(TABLE_PARSER_STATS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+	}
+
+	public void clearParserStatistics()
+	{
+		Log.w(TAG, ">>>> clearParserStatistics()");
+
+		SQLiteDatabase db = getWritableDatabase();
+		db.delete(TABLE_PARSER_STATS, null, null);
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db)
 	{
@@ -381,7 +775,13 @@ class TrackerDataAccess extends SQLiteOpenHelper
 													   + IMEI + " TEXT," 
 													   + SENDER + " TEXT NOT NULL UNIQUE," 
 													   + TITLE + " TEXT," 
-													   + ICON + " TEXT"  
+													   + ICON + " TEXT,"  
+													   + LATITUDE + " REAL," 
+													   + LONGITUDE + " REAL," 
+													   + SPEED + " REAL," 
+													   + BATTERY + " INTEGER," 
+													   + SIGNAL + " INTEGER," 
+												       + TIME + " INTEGER" 
 											      + ");");
 		
 		db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_HISTORY + " (" + _POINT_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
@@ -396,12 +796,38 @@ class TrackerDataAccess extends SQLiteOpenHelper
 												       + "FOREIGN KEY (" + TRACKER_ID + ") REFERENCES " + TABLE_TRACKERS +"(" + _TRACKER_ID + ") ON DELETE CASCADE"
 											      + ");");
 
+		createHistoryIndex(db);
+
+		db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_SENDER_PARSERS + " (" + SENDER + " TEXT PRIMARY KEY,"
+													   + PARSER + " TEXT NOT NULL,"
+													   + MODIFIED + " INTEGER"
+											      + ");");
+
+		db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PARSER_STATS + " (" + PARSER + " TEXT PRIMARY KEY,"
+													   + ATTEMPTS + " INTEGER,"
+													   + SUCCESSES + " INTEGER,"
+													   + FAILURES + " INTEGER,"
+													   + NANOS + " INTEGER,"
+													   + MAX_NANOS + " INTEGER,"
+													   + MAXIMUM + " INTEGER,"
+													   + P50 + " INTEGER,"
+													   + P90 + " INTEGER,"
+													   + P99 + " INTEGER,"
+													   + HISTOGRAM + " TEXT,"
+													   + MODIFIED + " INTEGER"
+											      + ");");
+
 		db.setTransactionSuccessful();
 
 		db.endTransaction();
 
 	}
 
+	private static void createHistoryIndex(SQLiteDatabase db)
+	{
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_HISTORY_TRACKER_TIME + " ON " + TABLE_HISTORY + " (" + TRACKER_ID + ", " + TIME + " DESC);");
+	}
+
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
 	{
@@ -410,13 +836,56 @@ class TrackerDataAccess extends SQLiteOpenHelper
 
 		db.beginTransaction();
 
-		if (oldVersion == 3 && newVersion == 4) {
+		if (oldVersion == 3) {
 			db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRACKERS);
 		}
-		else {
+		else if (oldVersion < 3) {
 			db.execSQL("DROP TABLE IF EXISTS " + TABLE_HISTORY);
 			db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRACKERS);
 		}
+		if (oldVersion > 3 && oldVersion < 8) {
+			// version 8 keeps latest fix in trackers table
+			for (String column : new String[] { LATITUDE + " REAL", LONGITUDE + " REAL", SPEED + " REAL", BATTERY + " INTEGER", SIGNAL + " INTEGER", TIME + " INTEGER" })
+				db.execSQL("ALTER TABLE " + TABLE_TRACKERS + " ADD COLUMN " + column);
+			// Latest fix is looked up once per tracker with history index, which is
+			// created before backfill and not only by onCreate() at the end
+			createHistoryIndex(db);
+			Cursor cursor = db.rawQuery("SELECT t." + _TRACKER_ID + ", h." + LATITUDE + ", h." + LONGITUDE + ", h." + SPEED + ", h." + BATTERY + ", h." + SIGNAL + ", h." + TIME
+					+ " FROM " + TABLE_TRACKERS + " t JOIN " + TABLE_HISTORY + " h ON h." + _POINT_ID + " = (SELECT " + _POINT_ID + " FROM " + TABLE_HISTORY
+					+ " WHERE " + TRACKER_ID + " = t." + _TRACKER_ID + " ORDER BY " + TIME + " DESC LIMIT 1)", null);
+			SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_TRACKERS + " SET " + LATITUDE + " = ?, " + LONGITUDE + " = ?, " + SPEED + " = ?, "
+					+ BATTERY + " = ?, " + SIGNAL + " = ?, " + TIME + " = ? WHERE " + WHERE_TRACKER);
+			try
+			{
+				while (cursor.moveToNext())
+				{
+					statement.clearBindings();
+					for (int i = 1; i <= 6; i++)
+					{
+						if (cursor.isNull(i))
+							continue;
+						// latitude, longitude and speed are real, the rest are integers
+						if (i <= 3)
+							statement.bindDouble(i, cursor.getDouble(i));
+						else
+							statement.bindLong(i, cursor.getLong(i));
+					}
+					statement.bindLong(7, cursor.getLong(0));
+					statement.execute();
+				}
+			}
+			finally
+			{
+				statement.close();
+				cursor.close();
+			}
+		}
+		if (oldVersion > 5 && oldVersion < 9) {
+			// version 9 keeps gauges apart from durations
+			db.execSQL("ALTER TABLE " + TABLE_PARSER_STATS + " ADD COLUMN " + MAXIMUM + " INTEGER");
+		}
+		// version 5 adds sender_parsers table, version 6 adds parser_stats table and version 7
+		// adds history index, they are created by onCreate() keeping existing data
 
 		db.setTransactionSuccessful();
 
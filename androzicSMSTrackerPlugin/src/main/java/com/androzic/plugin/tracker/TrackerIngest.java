@@ -0,0 +1,581 @@
+package com.androzic.plugin.tracker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Single writer of received tracker data. Parsed fixes are queued by SMS receiver and
+ * persisted, sent to Androzic map and notified on a dedicated background thread, so
+ * that broadcast returns without touching database or content providers. All tasks
+ * are executed in order of submission.
+ * <p>
+ * Live messages and messages replayed from journal are parsed on a pool of lanes
+ * partitioned by sender: messages of one tracker keep their order while different
+ * trackers are parsed concurrently. Live message is journaled on its lane and receiver
+ * holds the broadcast until then. Database is written only by writer thread.
+ * <p>
+ * Fixes queued while writer is busy are saved together in one transaction. Every fix
+ * is saved as soon as possible but map is updated after a short window, once per
+ * tracker with its newest state, so that a burst of queued messages from one tracker
+ * does not resend its footprints for every message.
+ * <p>
+ * Work is prioritized: saving fixes and alarm (SOS) alerts always run first, alarm
+ * fixes are queued ahead of other work and their trackers are updated on map and
+ * notified at once. Map updates, list broadcasts and routine notifications are done
+ * one tracker per step so that queued saves are not delayed behind map sync. When
+ * more than STORM_DEPTH fixes are waiting, routine updates are deferred for
+ * STORM_WINDOW and merged. Queue depth and number of merged (shed) updates are
+ * exposed and counted in parser statistics. Notifications of routine updates are
+ * grouped by NotificationAggregator.
+ */
+final class TrackerIngest implements Handler.Callback
+{
+	private static final String TAG = "TrackerIngest";
+
+	private static final int MSG_SAVE = 1;
+	private static final int MSG_FLUSH = 2;
+
+	/** Number of waiting fixes which switches writer to storm mode */
+	static final int STORM_DEPTH = 20;
+	/** Delay of routine updates in storm mode */
+	static final long STORM_WINDOW = 30000;
+	/** Maximum map update delay set in preferences, seconds */
+	static final int MAX_COALESCE_WINDOW = 60;
+
+	/**
+	 * Outcome of live message handled on parser lane
+	 */
+	interface Receipt
+	{
+		/**
+		 * Called on parser lane when message is handled
+		 * 
+		 * @param conceal true if message is recognized and is either a duplicate or
+		 *        journaled, so that it can be removed from inbox
+		 */
+		void done(boolean conceal);
+	}
+
+	private static TrackerIngest instance;
+
+	private final Context context;
+	private final Handler handler;
+	private final NotificationAggregator aggregator;
+	private final PartitionedExecutor parsers = new PartitionedExecutor(TAG, PartitionedExecutor.defaultParallelism());
+	// Fixes waiting to be saved and their journal sequence numbers, guarded by queue
+	private final List<Tracker> queue = new ArrayList<Tracker>();
+	private final List<Long> queueSeqs = new ArrayList<Long>();
+	// Journal sequence numbers of submitted but not yet saved messages, guarded by queue
+	private final SortedSet<Long> inFlight = new TreeSet<Long>();
+	// Highest journal sequence number of saved message, guarded by queue
+	private long savedSeq = 0;
+	// Senders of trackers saved but not yet updated on map, accessed only by writer thread
+	private final Set<String> pending = new LinkedHashSet<String>();
+	// Senders of pending trackers with live (not imported) fixes to be notified about
+	private final Set<String> pendingNotifications = new HashSet<String>();
+	// True while pending trackers are updated step by step, accessed only by writer thread
+	private boolean flushing = false;
+	// True while flush is deferred by storm, accessed only by writer thread
+	private boolean stormFlush = false;
+	private volatile int maxQueueDepth = 0;
+	private volatile long shedCount = 0;
+
+	private TrackerIngest(Context context)
+	{
+		this.context = context.getApplicationContext();
+		HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper(), this);
+		aggregator = new NotificationAggregator(this.context, handler);
+	}
+
+	static synchronized TrackerIngest getInstance(Context context)
+	{
+		if (instance == null)
+			instance = new TrackerIngest(context);
+		return instance;
+	}
+
+	/**
+	 * Queues parsed tracker fix for saving and displaying
+	 * 
+	 * @param seq journal sequence number of source message or 0 if it is not journaled
+	 */
+	void enqueue(Tracker tracker, long seq)
+	{
+		synchronized (queue)
+		{
+			if (seq > 0)
+				inFlight.add(seq);
+			add(tracker, seq);
+		}
+	}
+
+	/**
+	 * Queues fixes delivered together, they are saved in one transaction
+	 */
+	void enqueueAll(List<Tracker> trackers)
+	{
+		synchronized (queue)
+		{
+			for (Tracker tracker : trackers)
+				add(tracker, 0);
+		}
+	}
+
+	/**
+	 * Parses live message, journals and queues it unless it is a duplicate
+	 * 
+	 * @param time time of message receipt, used if message does not contain time
+	 * @return true if message can be concealed
+	 */
+	boolean receive(String sender, String text, long time)
+	{
+		Tracker tracker = new Tracker();
+		if (! SMSReceiver.parseMessage(context, sender, text, time, tracker))
+			return false;
+		if (tracker.time == 0)
+			tracker.time = time;
+
+		if (DuplicateFilter.isDuplicate(sender, text, tracker.time))
+		{
+			Log.w(TAG, "Duplicate message");
+			ParserStatistics.count(ParserStatistics.DUPLICATES);
+			return true;
+		}
+
+		// Journal is appended under queue lock so that journal is not committed past
+		// a message appended on other lane but not yet queued
+		long seq;
+		synchronized (queue)
+		{
+			seq = MessageJournal.getInstance(context).append(time, sender, text);
+			if (seq > 0)
+				inFlight.add(seq);
+			add(tracker, seq);
+		}
+		// Keep SMS in inbox if it is not journaled, it is the only durable copy
+		return seq > 0;
+	}
+
+	/**
+	 * Handles live message on the lane of its sender, see receive()
+	 */
+	void receive(final String sender, final String text, final long time, final Receipt receipt)
+	{
+		parsers.execute(sender, new Runnable() {
+			@Override
+			public void run()
+			{
+				boolean conceal = false;
+				try
+				{
+					conceal = receive(sender, text, time);
+				}
+				catch (RuntimeException e)
+				{
+					Log.e(TAG, "Failed to handle message from " + sender, e);
+				}
+				finally
+				{
+					receipt.done(conceal);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Parses message on the lane of its sender and queues parsed fix
+	 * 
+	 * @param time time of message receipt, used if message does not contain time
+	 * @param seq journal sequence number of message or 0 if it is not journaled
+	 */
+	void submit(final String sender, final String text, final long time, final long seq)
+	{
+		synchronized (queue)
+		{
+			if (seq > 0)
+				inFlight.add(seq);
+		}
+		parsers.execute(sender, new Runnable() {
+			@Override
+			public void run()
+			{
+				Tracker tracker = new Tracker();
+				boolean parsed = false;
+				try
+				{
+					parsed = SMSReceiver.parseMessage(context, sender, text, time, tracker);
+				}
+				catch (RuntimeException e)
+				{
+					// Message is dropped so that it is not replayed again
+					Log.e(TAG, "Failed to parse message from " + sender, e);
+				}
+				if (parsed && tracker.time == 0)
+					tracker.time = time;
+				synchronized (queue)
+				{
+					if (parsed)
+						add(tracker, seq);
+					else
+						inFlight.remove(seq);
+				}
+			}
+		});
+	}
+
+	// must be called with queue lock held
+	private void add(Tracker tracker, long seq)
+	{
+		queue.add(tracker);
+		queueSeqs.add(seq);
+		if (tracker.alarm)
+			handler.sendMessageAtFrontOfQueue(handler.obtainMessage(MSG_SAVE));
+		else if (queue.size() == 1)
+			handler.sendEmptyMessage(MSG_SAVE);
+	}
+
+	/**
+	 * Returns number of fixes waiting to be saved
+	 */
+	int getQueueDepth()
+	{
+		synchronized (queue)
+		{
+			return queue.size();
+		}
+	}
+
+	/**
+	 * Returns maximum number of fixes which were waiting to be saved at once
+	 */
+	int getMaxQueueDepth()
+	{
+		return maxQueueDepth;
+	}
+
+	/**
+	 * Returns number of fixes which map update and notification were merged with other fixes
+	 */
+	long getShedCount()
+	{
+		return shedCount;
+	}
+
+	/**
+	 * Runs task on writer thread after all previously queued fixes
+	 */
+	void post(Runnable task)
+	{
+		handler.post(guarded(task));
+	}
+
+	/**
+	 * Wraps task so that its failure is logged and does not kill writer thread
+	 */
+	private static Runnable guarded(final Runnable task)
+	{
+		return new Runnable() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					task.run();
+				}
+				catch (RuntimeException e)
+				{
+					Log.e(TAG, "Task failed", e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Saves imported fixes in one transaction on writer thread and waits until they are
+	 * saved. Trackers are updated on map with the next flush, user is not notified.
+	 */
+	void importFixes(final List<Tracker> fixes) throws InterruptedException
+	{
+		final CountDownLatch done = new CountDownLatch(1);
+		handler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					TrackerDataAccess dataAccess = TrackerDataAccess.getInstance(context);
+					pending.addAll(dataAccess.updateTrackers(fixes).keySet());
+					scheduleFlush(false);
+				}
+				catch (RuntimeException e)
+				{
+					Log.e(TAG, "Failed to import " + fixes.size() + " fixes", e);
+				}
+				finally
+				{
+					done.countDown();
+				}
+			}
+		});
+		done.await();
+	}
+
+	/**
+	 * Parses and queues journaled messages which were not saved before process died
+	 */
+	void replay()
+	{
+		post(new Runnable() {
+			@Override
+			public void run()
+			{
+				List<MessageJournal.Entry> entries = MessageJournal.getInstance(context).getUncommitted();
+				if (entries.isEmpty())
+					return;
+				Log.w(TAG, "Replaying " + entries.size() + " journaled messages");
+				for (MessageJournal.Entry entry : entries)
+					submit(entry.sender, entry.body, entry.time, entry.seq);
+			}
+		});
+	}
+
+	@Override
+	public boolean handleMessage(Message msg)
+	{
+		switch (msg.what)
+		{
+			case MSG_SAVE:
+				save();
+				return true;
+			case MSG_FLUSH:
+				flush();
+				return true;
+		}
+		return false;
+	}
+
+	private void save()
+	{
+		List<Tracker> batch;
+		List<Long> seqs;
+		synchronized (queue)
+		{
+			batch = new ArrayList<Tracker>(queue);
+			seqs = new ArrayList<Long>(queueSeqs);
+			queue.clear();
+			queueSeqs.clear();
+		}
+		if (batch.isEmpty())
+			return;
+		if (batch.size() > maxQueueDepth)
+		{
+			maxQueueDepth = batch.size();
+			ParserStatistics.max(ParserStatistics.MAX_QUEUE_DEPTH, maxQueueDepth);
+		}
+
+		TrackerDataAccess dataAccess = TrackerDataAccess.getInstance(context);
+		List<Tracker> saved = batch;
+		Set<String> senders;
+		try
+		{
+			senders = dataAccess.updateTrackers(batch).keySet();
+		}
+		catch (RuntimeException e)
+		{
+			// Bad fix must not fail the whole batch, fixes which can not be saved are
+			// dropped and journal is committed past them so that they are not replayed
+			Log.e(TAG, "Failed to save batch, saving fixes one by one", e);
+			saved = new ArrayList<Tracker>(batch.size());
+			senders = new LinkedHashSet<String>();
+			for (Tracker tracker : batch)
+			{
+				try
+				{
+					senders.addAll(dataAccess.updateTrackers(Collections.singletonList(tracker)).keySet());
+					saved.add(tracker);
+				}
+				catch (RuntimeException ex)
+				{
+					Log.e(TAG, "Dropped fix of " + tracker.sender, ex);
+				}
+			}
+		}
+
+		Set<String> alarms = new LinkedHashSet<String>();
+		int merged = 0;
+		for (Tracker tracker : saved)
+		{
+			if (tracker.alarm)
+				alarms.add(tracker.sender);
+			else if (! pending.add(tracker.sender) && ! alarms.contains(tracker.sender))
+				merged++;
+		}
+		for (String sender : senders)
+		{
+			if (! alarms.contains(sender))
+				pendingNotifications.add(sender);
+		}
+		if (merged > 0)
+		{
+			shedCount += merged;
+			ParserStatistics.count(ParserStatistics.SHED, merged);
+		}
+
+		// Lanes may complete out of order, commit journal only up to the oldest unsaved message
+		long committed;
+		synchronized (queue)
+		{
+			for (Long seq : seqs)
+			{
+				if (seq > 0)
+				{
+					inFlight.remove(seq);
+					savedSeq = Math.max(savedSeq, seq);
+				}
+			}
+			committed = inFlight.isEmpty() ? savedSeq : Math.min(savedSeq, inFlight.first() - 1);
+		}
+		if (committed > 0)
+			MessageJournal.getInstance(context).commit(committed);
+
+		// Alarms are displayed and notified without waiting for flush
+		for (String sender : alarms)
+		{
+			pending.remove(sender);
+			pendingNotifications.remove(sender);
+			update(sender, true, true);
+		}
+		if (! alarms.isEmpty())
+			context.sendBroadcast(new Intent(Application.TRACKER_DATE_RECEIVED_BROADCAST));
+
+		scheduleFlush(batch.size() > STORM_DEPTH);
+	}
+
+	private void scheduleFlush(boolean storm)
+	{
+		if (pending.isEmpty() || flushing)
+			return;
+		if (storm)
+		{
+			// Flush is deferred only once, so that sustained storm does not postpone it forever
+			if (stormFlush)
+				return;
+			stormFlush = true;
+			Log.w(TAG, "Storm: " + getMaxQueueDepth() + " max queue depth, " + shedCount + " shed");
+			ParserStatistics.count(ParserStatistics.STORMS);
+			handler.removeMessages(MSG_FLUSH);
+			handler.sendEmptyMessageDelayed(MSG_FLUSH, STORM_WINDOW);
+		}
+		else if (! handler.hasMessages(MSG_FLUSH))
+		{
+			handler.sendEmptyMessageDelayed(MSG_FLUSH, getCoalesceWindow() * 1000L);
+		}
+	}
+
+	/**
+	 * Returns map update delay in seconds, invalid preference value is replaced by default
+	 */
+	private int getCoalesceWindow()
+	{
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		String def = context.getString(R.string.def_tracker_coalesce_window);
+		int window;
+		try
+		{
+			window = Integer.parseInt(prefs.getString(context.getString(R.string.pref_tracker_coalesce_window), def).trim());
+		}
+		catch (NumberFormatException e)
+		{
+			Log.e(TAG, "Invalid map update delay, using default");
+			window = Integer.parseInt(def);
+		}
+		return Math.max(0, Math.min(window, MAX_COALESCE_WINDOW));
+	}
+
+	private void flush()
+	{
+		stormFlush = false;
+		if (pending.isEmpty())
+			return;
+		flushing = true;
+
+		Iterator<String> iterator = pending.iterator();
+		String sender = iterator.next();
+		iterator.remove();
+		update(sender, pendingNotifications.remove(sender), false);
+
+		if (! pending.isEmpty())
+		{
+			// Next tracker is updated after fixes queued meanwhile are saved
+			handler.sendEmptyMessage(MSG_FLUSH);
+			return;
+		}
+		flushing = false;
+		context.sendBroadcast(new Intent(Application.TRACKER_DATE_RECEIVED_BROADCAST));
+	}
+
+	/**
+	 * Sends latest state of tracker to map and notifies user if requested
+	 */
+	private void update(String sender, boolean notify, boolean alarm)
+	{
+		try
+		{
+			display(TrackerDataAccess.getInstance(context).getTracker(sender), notify, alarm);//get  latest positon of tracker
+		}
+		catch (RuntimeException e)
+		{
+			Log.e(TAG, "Failed to update tracker " + sender, e);
+		}
+	}
+
+	private void display(Tracker tracker, boolean notify, boolean alarm)
+	{
+		TrackerDataAccess dataAccess = TrackerDataAccess.getInstance(context);
+		if (tracker != null)
+		{
+			Application application = Application.getApplication();
+			try
+			{
+				application.sendTrackerOnMap(dataAccess, tracker);
+			}
+			catch (RemoteException e)
+			{
+				Log.e(TAG, "Failed to send tracker on map", e);
+			}
+		}
+
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		boolean notifications = prefs.getBoolean(context.getString(R.string.pref_tracker_notifications), context.getResources().getBoolean(R.bool.def_notifications));
+		if (tracker != null && notify && notifications)
+		{
+			if (alarm)
+				aggregator.alarm(tracker);
+			else
+				aggregator.add(tracker);
+		}
+	}
+}
@@ -124,9 +124,9 @@ public class TrackerList extends ListActivity
 			}
 		});
 
-		// Create database connection
-		dataAccess = new TrackerDataAccess(this);
-		Cursor cursor = dataAccess.getHeadersOfTrackers();
+		// Get shared database connection
+		dataAccess = TrackerDataAccess.getInstance(this);
+		Cursor cursor = dataAccess.getTrackersOverview();
 		Log.w(TAG, "getTrackers() - OK");
 		
 		// Bind list adapter
@@ -169,9 +169,8 @@ public class TrackerList extends ListActivity
 		// Disconnect from location service
 		disconnect();
 
-		// Close database connection
+		// Close cursor, database connection is shared
 		adapter.getCursor().close();
-		dataAccess.close();
 	}
 
 	@Override
@@ -191,8 +190,16 @@ public class TrackerList extends ListActivity
 				startActivity(new Intent(this, Preferences.class));
 				return true;
 			case R.id.menuDB:
+				// Make parser_stats table up to date
+				ParserStatistics.post(this);
 				startActivity(new Intent(this, AndroidDatabaseManager.class));
 				return true;
+			case R.id.menuBackfill:
+				InboxBackfillService.start(this, false);
+				return true;
+			case R.id.menuResetStatistics:
+				ParserStatistics.reset(this);
+				return true;
 		}
 		return false;
 	}
@@ -362,17 +369,27 @@ public class TrackerList extends ListActivity
 					startActivityForResult(new Intent(TrackerList.this, TrackerProperties.class).putExtra("sender", tracker.sender), 0);
 					break;
 				case qaTrackerDelete:
-					try
-					{
-						application.removeTrackerFromMap(dataAccess, tracker);
-					}
-					catch (RemoteException e)
-					{
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-					dataAccess.removeTracker(tracker);
-					updateData();
+					final Application app = application;
+					final Tracker removed = tracker;
+					final Context context = getApplicationContext();
+					// Tracker row and map objects are written by the same thread that saves received data
+					TrackerIngest.getInstance(context).post(new Runnable() {
+						@Override
+						public void run()
+						{
+							try
+							{
+								app.removeTrackerFromMap(dataAccess, removed);
+							}
+							catch (RemoteException e)
+							{
+								// TODO Auto-generated catch block
+								e.printStackTrace();
+							}
+							dataAccess.removeTracker(removed);
+							context.sendBroadcast(new Intent(Application.TRACKER_DATE_RECEIVED_BROADCAST));
+						}
+					});
 					break;
 			}
 		}
@@ -0,0 +1,38 @@
+package com.androzic.plugin.tracker;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Parser of text messages sent by particular tracker model (or family of models).
+ * Implementations should be stateless as one instance is shared by all incoming messages.
+ */
+interface TrackerMessageParser
+{
+	/**
+	 * Returns short parser name used in logs
+	 */
+	String getName();
+
+	/**
+	 * Returns maximum length of message in this format, longer messages are not given to parser
+	 */
+	int getMaxLength();
+
+	/**
+	 * Quickly checks if message can be recognized by this parser. Should return false only
+	 * if some signals required by the format are absent.
+	 * 
+	 * @param fingerprint signals found in message text
+	 */
+	boolean accepts(MessageFingerprint fingerprint);
+
+	/**
+	 * Parses message text and fills tracker with decoded data
+	 * 
+	 * @param text message text
+	 * @param received time message was received, reference for timestamps without year
+	 * @param tracker tracker to fill
+	 * @return true if message was recognized
+	 */
+	boolean parse(String text, long received, Tracker tracker);
+}
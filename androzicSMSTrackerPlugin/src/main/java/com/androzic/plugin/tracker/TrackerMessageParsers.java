@@ -0,0 +1,182 @@
+package com.androzic.plugin.tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Registry of known tracker message formats. Every format is registered once and
+ * all its patterns are compiled when parser class is loaded. Message is first
+ * fingerprinted in one pass and only parsers accepting the fingerprint are tried.
+ */
+final class TrackerMessageParsers
+{
+	private static final List<TrackerMessageParser> parsers = new CopyOnWriteArrayList<TrackerMessageParser>();
+	private static final List<TrackerMessageParser> fallbacks = new CopyOnWriteArrayList<TrackerMessageParser>();
+
+	private static volatile int maxLength = 0;
+
+	static
+	{
+		register(new XexunTK102Parser());
+		register(new JointechJT600Parser());
+		register(new TK102Clone1Parser());
+		registerFallback(new FlexModeParser());
+	}
+
+	private TrackerMessageParsers()
+	{
+	}
+
+	/**
+	 * Registers parser of strict device format. Parsers are tried in order of registration.
+	 */
+	static void register(TrackerMessageParser parser)
+	{
+		parsers.add(parser);
+		maxLength = Math.max(maxLength, parser.getMaxLength());
+	}
+
+	/**
+	 * Registers heuristic parser which is tried only if all strict parsers failed and
+	 * flex mode is enabled by user.
+	 */
+	static void registerFallback(TrackerMessageParser parser)
+	{
+		fallbacks.add(parser);
+		maxLength = Math.max(maxLength, parser.getMaxLength());
+	}
+
+	/**
+	 * Removes previously registered parser
+	 */
+	static void unregister(TrackerMessageParser parser)
+	{
+		if (! parsers.remove(parser) && ! fallbacks.remove(parser))
+			return;
+		int length = 0;
+		for (TrackerMessageParser p : parsers)
+			length = Math.max(length, p.getMaxLength());
+		for (TrackerMessageParser p : fallbacks)
+			length = Math.max(length, p.getMaxLength());
+		maxLength = length;
+	}
+
+	/**
+	 * Returns all registered parsers, strict parsers first
+	 */
+	static List<TrackerMessageParser> getParsers()
+	{
+		List<TrackerMessageParser> all = new ArrayList<TrackerMessageParser>(parsers);
+		all.addAll(fallbacks);
+		return all;
+	}
+
+	/**
+	 * Returns registered parser with given name or null if there is no such parser
+	 */
+	static TrackerMessageParser get(String name)
+	{
+		for (TrackerMessageParser parser : parsers)
+		{
+			if (parser.getName().equals(name))
+				return parser;
+		}
+		for (TrackerMessageParser parser : fallbacks)
+		{
+			if (parser.getName().equals(name))
+				return parser;
+		}
+		return null;
+	}
+
+	/**
+	 * Tries registered parsers one by one until message is recognized.
+	 * 
+	 * @param text message text
+	 * @param tracker tracker to fill
+	 * @param flexMode whether fallback parsers should be tried
+	 * @return parser which recognized the message or null
+	 */
+	static TrackerMessageParser parse(String text, Tracker tracker, boolean flexMode)
+	{
+		return parse(text, System.currentTimeMillis(), tracker, flexMode, null);
+	}
+
+	/**
+	 * Tries preferred parser first and then other registered parsers one by one until
+	 * message is recognized.
+	 * 
+	 * @param text message text
+	 * @param received time message was received
+	 * @param tracker tracker to fill
+	 * @param flexMode whether fallback parsers should be tried
+	 * @param preferred parser to try first, may be null
+	 * @return parser which recognized the message or null
+	 */
+	static TrackerMessageParser parse(String text, long received, Tracker tracker, boolean flexMode, TrackerMessageParser preferred)
+	{
+		return parse(text, received, tracker, flexMode, preferred, true);
+	}
+
+	/**
+	 * Same as parse() but does not count parser statistics, used for messages which are
+	 * not received live
+	 */
+	static TrackerMessageParser parseQuietly(String text, long received, Tracker tracker, boolean flexMode, TrackerMessageParser preferred)
+	{
+		return parse(text, received, tracker, flexMode, preferred, false);
+	}
+
+	private static TrackerMessageParser parse(String text, long received, Tracker tracker, boolean flexMode, TrackerMessageParser preferred, boolean statistics)
+	{
+		if (statistics)
+			ParserStatistics.count(ParserStatistics.MESSAGES);
+
+		if (preferred != null && (flexMode || ! fallbacks.contains(preferred)) && attempt(preferred, text, received, tracker, statistics))
+			return preferred;
+
+		// Message is too long for any known format
+		if (text.length() > maxLength)
+		{
+			if (statistics)
+				ParserStatistics.count(ParserStatistics.REJECTED);
+			return null;
+		}
+
+		MessageFingerprint fingerprint = MessageFingerprint.scan(text);
+		for (TrackerMessageParser parser : parsers)
+		{
+			if (parser != preferred && parser.accepts(fingerprint) && attempt(parser, text, received, tracker, statistics))
+				return parser;
+		}
+		if (flexMode)
+		{
+			if (statistics)
+				ParserStatistics.count(ParserStatistics.FALLTHROUGH);
+			for (TrackerMessageParser parser : fallbacks)
+			{
+				if (parser != preferred && parser.accepts(fingerprint) && attempt(parser, text, received, tracker, statistics))
+					return parser;
+			}
+		}
+		if (statistics)
+			ParserStatistics.count(ParserStatistics.REJECTED);
+		return null;
+	}
+
+	/**
+	 * Runs parser within parsing guard limits and records the outcome
+	 */
+	private static boolean attempt(TrackerMessageParser parser, String text, long received, Tracker tracker, boolean statistics)
+	{
+		if (! statistics)
+			return text.length() <= parser.getMaxLength() && parser.parse(text, received, tracker);
+		long start = System.nanoTime();
+		boolean success = ParsingGuard.parse(parser, text, received, tracker);
+		ParserStatistics.record(parser.getName(), success, System.nanoTime() - start);
+		return success;
+	}
+}
@@ -2,6 +2,7 @@ package com.androzic.plugin.tracker;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.os.Build;
@@ -39,13 +40,12 @@ public class TrackerProperties extends Activity
 		String sender = getIntent().getStringExtra("sender");
 		
 		application = Application.getApplication();
-		dataAccess = new TrackerDataAccess(this);
+		dataAccess = TrackerDataAccess.getInstance(this);
 		tracker = dataAccess.getTracker(sender);
 		
 		if (tracker == null)
 		{
 			finish();
-			dataAccess.close();
 			return;
 		}
 		
@@ -71,13 +71,6 @@ public class TrackerProperties extends Activity
 		});
 	}
 
-	@Override
-	public void onDestroy()
-	{
-		super.onDestroy();
-		dataAccess.close();
-	}
-
 	@Override
 	protected void onRestoreInstanceState(Bundle savedInstanceState)
 	{
@@ -158,16 +151,26 @@ public class TrackerProperties extends Activity
 			if ("".equals(tracker.name))
 				tracker.name = tracker.sender;
 			tracker.image = iconValue == null ? "" : iconValue;
-			dataAccess.updateTracker(tracker);
-			try
-			{
-				application.sendTrackerOnMap(dataAccess, tracker);
-			}
-			catch (RemoteException e)
-			{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			final Tracker edited = tracker;
+			final Context context = getApplicationContext();
+			// Tracker row and map objects are written by the same thread that saves received data
+			TrackerIngest.getInstance(context).post(new Runnable() {
+				@Override
+				public void run()
+				{
+					dataAccess.updateTracker(edited);
+					try
+					{
+						application.sendTrackerOnMap(dataAccess, edited);
+					}
+					catch (RemoteException e)
+					{
+						// TODO Auto-generated catch block
+						e.printStackTrace();
+					}
+					context.sendBroadcast(new Intent(Application.TRACKER_DATE_RECEIVED_BROADCAST));
+				}
+			});
 			setResult(Activity.RESULT_OK);
 			finish();
 		}
@@ -0,0 +1,208 @@
+package com.androzic.plugin.tracker;
+
+import java.util.TimeZone;
+
+/**
+ * Decodes fixed-field timestamps sent by trackers straight into epoch milliseconds.
+ * Unlike SimpleDateFormat it is stateless, thread-safe and does not allocate.
+ * <p>
+ * Rules:
+ * <ul>
+ * <li>Timestamps are interpreted in given time zone, parsers use device time zone as trackers report local time.</li>
+ * <li>Two-digit year yy means 20yy.</li>
+ * <li>If year is absent, year of current time is used unless it places timestamp more than a day in future,
+ * in which case previous year is used (message sent on Dec 31 and received on Jan 1).</li>
+ * </ul>
+ */
+final class TrackerTimeDecoder
+{
+	/**
+	 * Returned when timestamp can not be decoded, same as unset Tracker.time
+	 */
+	static final long UNKNOWN = 0;
+
+	private static final long SECOND = 1000;
+	private static final long MINUTE = 60 * SECOND;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+	private static final long ZONE_REFRESH_INTERVAL = MINUTE;
+
+	private static volatile TimeZone deviceZone = TimeZone.getDefault();
+	private static volatile long deviceZoneTime = 0;
+
+	private TrackerTimeDecoder()
+	{
+	}
+
+	/**
+	 * Returns device time zone, it is cached to avoid cloning on every message. Cache is
+	 * refreshed by messages received later than refresh interval after last refresh,
+	 * older (replayed or imported) messages use cached zone.
+	 * 
+	 * @param now time message was received
+	 */
+	static TimeZone deviceZone(long now)
+	{
+		if (now - deviceZoneTime > ZONE_REFRESH_INTERVAL)
+		{
+			deviceZone = TimeZone.getDefault();
+			deviceZoneTime = now;
+		}
+		return deviceZone;
+	}
+
+	/**
+	 * Decodes MM-dd HH:mm:ss (Jointech)
+	 */
+	static long decodeMonthDayTime(CharSequence text, int start, int end, TimeZone zone, long now)
+	{
+		int pos = skipSpaces(text, start, end);
+		if (pos + 14 > end)
+			return UNKNOWN;
+		int month = number(text, pos, 2);
+		int day = number(text, pos + 3, 2);
+		if (text.charAt(pos + 2) != '-')
+			return UNKNOWN;
+		pos = skipSpaces(text, pos + 5, end);
+		if (pos + 8 > end || text.charAt(pos + 2) != ':' || text.charAt(pos + 5) != ':')
+			return UNKNOWN;
+		int hour = number(text, pos, 2);
+		int minute = number(text, pos + 3, 2);
+		int second = number(text, pos + 6, 2);
+
+		int year = yearOf(now, zone);
+		long time = toMillis(year, month, day, hour, minute, second, zone);
+		if (time != UNKNOWN && time > now + DAY)
+			time = toMillis(year - 1, month, day, hour, minute, second, zone);
+		return time;
+	}
+
+	/**
+	 * Decodes dd/MM/yy HH:mm or dd/MM/yy HH.mm (Xexun)
+	 */
+	static long decodeDayMonthYearTime(CharSequence text, int start, int end, TimeZone zone)
+	{
+		int pos = skipSpaces(text, start, end);
+		if (pos + 8 > end || text.charAt(pos + 2) != '/' || text.charAt(pos + 5) != '/')
+			return UNKNOWN;
+		int day = number(text, pos, 2);
+		int month = number(text, pos + 3, 2);
+		int year = number(text, pos + 6, 2);
+		return decodeHourMinute(text, pos + 8, end, year, month, day, zone);
+	}
+
+	/**
+	 * Decodes yy/MM/dd HH:mm (TK102 clone)
+	 */
+	static long decodeYearMonthDayTime(CharSequence text, int start, int end, TimeZone zone)
+	{
+		int pos = skipSpaces(text, start, end);
+		if (pos + 8 > end || text.charAt(pos + 2) != '/' || text.charAt(pos + 5) != '/')
+			return UNKNOWN;
+		int year = number(text, pos, 2);
+		int month = number(text, pos + 3, 2);
+		int day = number(text, pos + 6, 2);
+		return decodeHourMinute(text, pos + 8, end, year, month, day, zone);
+	}
+
+	private static long decodeHourMinute(CharSequence text, int pos, int end, int year, int month, int day, TimeZone zone)
+	{
+		if (year < 0)
+			return UNKNOWN;
+		int next = skipSpaces(text, pos, end);
+		if (next == pos || next + 5 > end)
+			return UNKNOWN;
+		char separator = text.charAt(next + 2);
+		if (separator != ':' && separator != '.')
+			return UNKNOWN;
+		int hour = number(text, next, 2);
+		int minute = number(text, next + 3, 2);
+		return toMillis(2000 + year, month, day, hour, minute, 0, zone);
+	}
+
+	/**
+	 * Converts local date and time to epoch milliseconds, returns UNKNOWN if fields are out of range
+	 */
+	static long toMillis(int year, int month, int day, int hour, int minute, int second, TimeZone zone)
+	{
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month))
+			return UNKNOWN;
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+			return UNKNOWN;
+		long local = daysFromCivil(year, month, day) * DAY + hour * HOUR + minute * MINUTE + second * SECOND;
+		long offset = zone.getOffset(local - zone.getRawOffset());
+		return local - offset;
+	}
+
+	/**
+	 * Returns calendar year of given moment in given time zone
+	 */
+	static int yearOf(long time, TimeZone zone)
+	{
+		long local = time + zone.getOffset(time);
+		long days = local >= 0 ? local / DAY : (local - DAY + 1) / DAY;
+		// Howard Hinnant's civil_from_days, only year is needed
+		days += 719468;
+		long era = (days >= 0 ? days : days - 146096) / 146097;
+		long doe = days - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		long year = yoe + era * 400;
+		if (mp >= 10)
+			year++;
+		return (int) year;
+	}
+
+	/**
+	 * Returns number of days since 1970-01-01 (Howard Hinnant's days_from_civil)
+	 */
+	static long daysFromCivil(int year, int month, int day)
+	{
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static int daysInMonth(int year, int month)
+	{
+		switch (month)
+		{
+			case 2:
+				return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	/**
+	 * Reads fixed width decimal number, returns -1 if there are non-digit characters
+	 */
+	private static int number(CharSequence text, int pos, int width)
+	{
+		int value = 0;
+		for (int i = pos; i < pos + width; i++)
+		{
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int skipSpaces(CharSequence text, int pos, int end)
+	{
+		while (pos < end && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+		return pos;
+	}
+}
@@ -0,0 +1,235 @@
+package com.androzic.plugin.tracker;
+
+import com.androzic.data.Tracker;
+
+/**
+ * Xexun family and some clones. Message is recognized by deterministic scanner which
+ * walks the text without backtracking from every standalone "lat:" marker, so failure
+ * on foreign message costs one search for the marker.
+ */
+class XexunTK102Parser implements TrackerMessageParser
+{
+	// lat: 55.807693 long: 037.730640 speed: 000.0 03/03/13 16:18   bat:F signal:F  imei:358948010446647
+	// lat:55.950468 long:035.867116 speed: 000.0 24/11/12 08:54 bat:F signal:F imei:358948010446647
+	// lat: 123.345678N long: 0.125621W speed: 001.2 17/07/11 21:34 F:3.92V,1,Signal:F help me imei:123456789012 07 83.8 234 15 006B 24C4
+	// lat: 22.566901 long: 114.051258 speed: 0.00 14/08/09 06.54 F:3.85V,1,Signal:F help me imei:354776031555474 05 43.5 460 01 2533 720B
+	// help me! lat:123.45678 long:001.23456 speed:090.00 T:17/01/11 15:14 Bat:25% Signal:F imei:1234567
+
+	@Override
+	public String getName()
+	{
+		return "XexunTK102";
+	}
+
+	@Override
+	public int getMaxLength()
+	{
+		// longest sample is 130 characters
+		return ParsingGuard.SMS_LENGTH * 2;
+	}
+
+	@Override
+	public boolean accepts(MessageFingerprint fingerprint)
+	{
+		return fingerprint.has(MessageFingerprint.LAT | MessageFingerprint.LONG | MessageFingerprint.SPEED | MessageFingerprint.SIGNAL | MessageFingerprint.IMEI);
+	}
+
+	@Override
+	public boolean parse(String text, long received, Tracker tracker)
+	{
+		// Leading message may contain the marker too, try every standalone occurrence
+		int latMarker = Markers.indexOf(text, "lat:", 0);
+		while (latMarker >= 0)
+		{
+			if (Markers.isWordStart(text, latMarker) && parse(text, latMarker, received, tracker))
+				return true;
+			latMarker = Markers.indexOf(text, "lat:", latMarker + 1);
+		}
+		return false;
+	}
+
+	private boolean parse(String text, int latMarker, long received, Tracker tracker)
+	{
+		int length = text.length();
+
+		// Coordinates
+		int latStart = Markers.skipSpaces(text, latMarker + 4);
+		int latEnd = Markers.skipToken(text, latStart);
+		if (latEnd == latStart)
+			return false;
+		int pos = Markers.skipSpaces(text, latEnd);
+		if (! text.regionMatches(true, pos, "long:", 0, 5))
+			return false;
+		int lonStart = Markers.skipSpaces(text, pos + 5);
+		int lonEnd = Markers.skipToken(text, lonStart);
+		if (lonEnd == lonStart)
+			return false;
+
+		// Speed
+		pos = Markers.skipSpaces(text, lonEnd);
+		if (! text.regionMatches(true, pos, "speed:", 0, 6))
+			return false;
+		int speedStart = Markers.skipSpaces(text, pos + 6);
+		int speedEnd = speedStart;
+		while (speedEnd < length && (Markers.isDigit(text.charAt(speedEnd)) || text.charAt(speedEnd) == '.'))
+			speedEnd++;
+		if (speedEnd == speedStart)
+			return false;
+
+		// Time
+		pos = Markers.skipSpaces(text, speedEnd);
+		if (text.regionMatches(true, pos, "T:", 0, 2))
+			pos += 2;
+		int timeStart = pos;
+		while (pos < length && isTimeChar(text.charAt(pos)))
+			pos++;
+		int timeEnd = pos;
+		while (timeEnd > timeStart && Character.isWhitespace(text.charAt(timeEnd - 1)))
+			timeEnd--;
+		if (timeEnd == timeStart)
+			return false;
+
+		// Battery
+		if (text.regionMatches(true, pos, "bat:", 0, 4))
+			pos += 4;
+		else if (text.regionMatches(true, pos, "F:", 0, 2))
+			pos += 2;
+		else
+			return false;
+		int batteryStart = pos;
+		while (pos < length && ! Character.isWhitespace(text.charAt(pos)) && text.charAt(pos) != ',')
+			pos++;
+		int batteryEnd = pos;
+		if (batteryEnd == batteryStart)
+			return false;
+		// Voltage is followed by some flag: 3.92V,1,
+		if (batteryEnd - batteryStart > 1 && Character.toUpperCase(text.charAt(batteryEnd - 1)) == 'V'
+				&& pos + 2 < length && text.charAt(pos) == ',' && Markers.isDigit(text.charAt(pos + 1)) && text.charAt(pos + 2) == ',')
+		{
+			batteryEnd--;
+			pos += 3;
+		}
+
+		// Signal
+		pos = Markers.skipSpaces(text, pos);
+		if (! text.regionMatches(true, pos, "signal:", 0, 7))
+			return false;
+		int signalStart = pos + 7;
+		int signalEnd = Markers.skipToken(text, signalStart);
+		if (signalEnd == signalStart)
+			return false;
+
+		// Trailing message and IMEI
+		int imeiMarker = Markers.indexOf(text, "imei:", signalEnd);
+		if (imeiMarker < 0)
+			return false;
+		int imeiStart = imeiMarker + 5;
+		int imeiEnd = imeiStart;
+		while (imeiEnd < length && Markers.isDigit(text.charAt(imeiEnd)))
+			imeiEnd++;
+		if (imeiEnd == imeiStart)
+			return false;
+
+		double latitude = CoordinateDecoder.decodeLatitude(text, latStart, latEnd);
+		double longitude = CoordinateDecoder.decodeLongitude(text, lonStart, lonEnd);
+		if (Double.isNaN(latitude) || Double.isNaN(longitude))
+			return false;
+
+		tracker.latitude = latitude;
+		tracker.longitude = longitude;
+
+		try
+		{
+			tracker.speed = Double.parseDouble(text.substring(speedStart, speedEnd)) / 3.6;
+		}
+		catch (NumberFormatException ignore)
+		{
+		}
+
+		tracker.time = TrackerTimeDecoder.decodeDayMonthYearTime(text, timeStart, timeEnd, TrackerTimeDecoder.deviceZone(received));
+
+		parseBattery(text, batteryStart, batteryEnd, tracker);
+
+		if (signalEnd - signalStart == 1)
+		{
+			char signal = text.charAt(signalStart);
+			if (signal == 'F')
+				tracker.signal = Tracker.LEVEL_FULL;
+			if (signal == 'L' || signal == '0')
+				tracker.signal = Tracker.LEVEL_LOW;
+		}
+
+		tracker.imei = text.substring(imeiStart, imeiEnd);
+
+		if (latMarker > 0)
+			tracker.message = text.substring(0, latMarker);
+		int messageStart = Markers.skipSpaces(text, signalEnd);
+		if (imeiMarker > messageStart)
+			tracker.message = text.substring(messageStart, imeiMarker);
+
+		return true;
+	}
+
+	/**
+	 * Decodes battery level: F - full, L - low, 25% - percent, 3.92 - voltage
+	 */
+	private static void parseBattery(String text, int start, int end, Tracker tracker)
+	{
+		char first = text.charAt(start);
+		if (end - start == 1 && first == 'F')
+		{
+			tracker.battery = Tracker.LEVEL_FULL;
+			return;
+		}
+		if (end - start == 1 && first == 'L')
+		{
+			tracker.battery = Tracker.LEVEL_LOW;
+			return;
+		}
+		int value = 0;
+		int fraction = -1;
+		for (int i = start; i < end; i++)
+		{
+			char c = text.charAt(i);
+			if (Markers.isDigit(c))
+			{
+				value = value * 10 + (c - '0');
+				if (fraction >= 0)
+					fraction++;
+			}
+			else if (c == '.' && fraction < 0 && i > start)
+			{
+				fraction = 0;
+			}
+			else if (c == '%' && i == end - 1 && fraction < 0 && i > start)
+			{
+				tracker.battery = value;
+				return;
+			}
+			else
+			{
+				return;
+			}
+		}
+		if (fraction > 0)
+		{
+			// Voltage multiplied by 100
+			while (fraction < 2)
+			{
+				value *= 10;
+				fraction++;
+			}
+			while (fraction > 2)
+			{
+				value /= 10;
+				fraction--;
+			}
+			tracker.battery = value;
+		}
+	}
+
+	private static boolean isTimeChar(char c)
+	{
+		return Markers.isDigit(c) || c == '/' || c == ':' || c == '.' || Character.isWhitespace(c);
+	}
+}
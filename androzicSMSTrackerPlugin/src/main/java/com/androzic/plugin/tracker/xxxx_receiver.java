@@ -3,15 +3,85 @@ package com.androzic.plugin.tracker;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.util.Log;
+
+import com.androzic.data.Tracker;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by bond on 28.11.2017.
+ *
+ * Receives batches of fixes from external connectors (e.g. GPRS/TCP bridge). Fixes are
+ * passed as parallel primitive arrays, i-th element of every array belongs to i-th fix:
+ * <ul>
+ * <li>senders - String[], or sender - String if all fixes are from one tracker</li>
+ * <li>lat, lon - double[] in degrees, required</li>
+ * <li>time - long[] in milliseconds, optional (receipt time is used)</li>
+ * <li>speed - double[] in m/s, optional</li>
+ * <li>battery, signal - int[] as in Tracker, optional</li>
+ * </ul>
+ * The whole batch is saved in one transaction and sent to map in one update. Senders
+ * must hold signature level SEND_FIXES permission.
  */
-
 public class xxxx_receiver extends BroadcastReceiver {
+    private static final String TAG = "xxxx_receiver";
+
+    static final String EXTRA_SENDERS = "senders";
+    static final String EXTRA_SENDER = "sender";
+    static final String EXTRA_LATITUDES = "lat";
+    static final String EXTRA_LONGITUDES = "lon";
+    static final String EXTRA_TIMES = "time";
+    static final String EXTRA_SPEEDS = "speed";
+    static final String EXTRA_BATTERIES = "battery";
+    static final String EXTRA_SIGNALS = "signal";
+
     @Override
     public void onReceive(Context context, Intent intent) {
+        String[] senders = intent.getStringArrayExtra(EXTRA_SENDERS);
+        String sender = intent.getStringExtra(EXTRA_SENDER);
+        double[] latitudes = intent.getDoubleArrayExtra(EXTRA_LATITUDES);
+        double[] longitudes = intent.getDoubleArrayExtra(EXTRA_LONGITUDES);
+        long[] times = intent.getLongArrayExtra(EXTRA_TIMES);
+        double[] speeds = intent.getDoubleArrayExtra(EXTRA_SPEEDS);
+        int[] batteries = intent.getIntArrayExtra(EXTRA_BATTERIES);
+        int[] signals = intent.getIntArrayExtra(EXTRA_SIGNALS);
+
+        if (latitudes == null || longitudes == null || (senders == null && sender == null)) {
+            Log.e(TAG, "Missing fix data");
+            return;
+        }
+        int count = latitudes.length;
+        if (longitudes.length != count || (senders != null && senders.length != count)
+                || (times != null && times.length != count) || (speeds != null && speeds.length != count)
+                || (batteries != null && batteries.length != count) || (signals != null && signals.length != count)) {
+            Log.e(TAG, "Fix arrays have different lengths");
+            return;
+        }
 
+        long now = System.currentTimeMillis();
+        List<Tracker> trackers = new ArrayList<Tracker>(count);
+        for (int i = 0; i < count; i++) {
+            Tracker tracker = new Tracker();
+            tracker.sender = senders != null ? senders[i] : sender;
+            tracker.latitude = latitudes[i];
+            tracker.longitude = longitudes[i];
+            if (tracker.sender == null || "".equals(tracker.sender)
+                    || ! CoordinateDecoder.isValid(tracker.latitude, tracker.longitude))
+                continue;
+            tracker.time = times != null && times[i] > 0 ? times[i] : now;
+            if (speeds != null)
+                tracker.speed = speeds[i];
+            if (batteries != null)
+                tracker.battery = batteries[i];
+            if (signals != null)
+                tracker.signal = signals[i];
+            trackers.add(tracker);
+        }
 
+        Log.w(TAG, "Received " + trackers.size() + " of " + count + " fixes");
+        if (! trackers.isEmpty())
+            TrackerIngest.getInstance(context).enqueueAll(trackers);
     }
 }